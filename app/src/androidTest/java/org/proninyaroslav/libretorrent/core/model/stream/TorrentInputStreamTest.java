@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.proninyaroslav.libretorrent.core.model.TorrentEngineListener;
+import org.proninyaroslav.libretorrent.core.model.data.ReadPieceInfo;
+import org.proninyaroslav.libretorrent.core.model.session.TorrentDownload;
+import org.proninyaroslav.libretorrent.core.model.session.TorrentSession;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class TorrentInputStreamTest
+{
+    private static final String TORRENT_ID = "0000000000000000000000000000000000000000";
+    private static final int PIECE_LENGTH = 1024;
+    private static final int NUM_PIECES = 16;
+    private static final int READERS = 8;
+    private static final long TIMEOUT = 10; /* sec */
+
+    private final Memory[] pieces = new Memory[NUM_PIECES];
+    private final Set<Integer> havePieces = ConcurrentHashMap.newKeySet();
+    private final CopyOnWriteArrayList<TorrentEngineListener> listeners = new CopyOnWriteArrayList<>();
+    /* Pieces are delivered asynchronously, like the alerts */
+    private ExecutorService alertExec;
+    private ExecutorService readersExec;
+    private TorrentSession session;
+    private TorrentStream stream;
+
+    @Before
+    public void init()
+    {
+        for (int i = 0; i < NUM_PIECES; i++) {
+            pieces[i] = new Memory(PIECE_LENGTH);
+            for (int j = 0; j < PIECE_LENGTH; j++)
+                pieces[i].setByte(j, expectedByte((long)i * PIECE_LENGTH + j));
+        }
+        /* Pieces must be read from the session */
+        PieceCache.getInstance().removeTorrent(TORRENT_ID);
+        alertExec = Executors.newSingleThreadExecutor();
+        readersExec = Executors.newCachedThreadPool();
+        session = makeSession(makeTask());
+        stream = new TorrentStream(TORRENT_ID, 0, "file", 0, NUM_PIECES - 1, PIECE_LENGTH,
+                0, (long)NUM_PIECES * PIECE_LENGTH, PIECE_LENGTH);
+    }
+
+    @After
+    public void finish()
+    {
+        readersExec.shutdownNow();
+        alertExec.shutdownNow();
+    }
+
+    @Test
+    public void testStreamsDontBlockEachOther() throws Exception
+    {
+        for (int i = 1; i < NUM_PIECES; i++)
+            havePieces.add(i);
+
+        /* Waits for the first piece, which isn't downloaded yet */
+        TorrentInputStream blockedStream = new TorrentInputStream(session, stream);
+        Future<byte[]> blocked = readersExec.submit(() -> readFully(blockedStream, PIECE_LENGTH));
+
+        ArrayList<Future<byte[]>> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            int piece = i + 1;
+            TorrentInputStream is = new TorrentInputStream(session, stream);
+            readers.add(readersExec.submit(() -> {
+                assertEquals((long)piece * PIECE_LENGTH, is.skip((long)piece * PIECE_LENGTH));
+
+                return readFully(is, PIECE_LENGTH);
+            }));
+        }
+        for (int i = 0; i < READERS; i++)
+            assertData((long)(i + 1) * PIECE_LENGTH, readers.get(i).get(TIMEOUT, TimeUnit.SECONDS));
+        assertFalse(blocked.isDone());
+
+        havePieces.add(0);
+        for (TorrentEngineListener l : listeners)
+            l.onPieceFinished(TORRENT_ID, 0);
+        assertData(0, blocked.get(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testParallelReadsOfSamePieces() throws Exception
+    {
+        for (int i = 0; i < NUM_PIECES; i++)
+            havePieces.add(i);
+
+        int fileSize = NUM_PIECES * PIECE_LENGTH;
+        ArrayList<Future<byte[]>> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            TorrentInputStream is = new TorrentInputStream(session, stream);
+            readers.add(readersExec.submit(() -> readFully(is, fileSize)));
+        }
+        for (Future<byte[]> reader : readers)
+            assertData(0, reader.get(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testReadAhead() throws Exception
+    {
+        for (int i = 0; i < NUM_PIECES; i++)
+            havePieces.add(i);
+
+        TorrentInputStream is = new TorrentInputStream(session, stream);
+        try {
+            /* Move to the second piece */
+            assertEquals(PIECE_LENGTH + 1, is.read(new byte[PIECE_LENGTH + 1]));
+
+            /* The next piece is requested before it's read */
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT);
+            while (!PieceCache.getInstance().contains(TORRENT_ID, 2)) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    private static byte expectedByte(long offset)
+    {
+        return (byte)(offset % 251);
+    }
+
+    private static void assertData(long offset, byte[] data)
+    {
+        for (int i = 0; i < data.length; i++)
+            assertEquals("offset " + (offset + i), expectedByte(offset + i), data[i]);
+    }
+
+    /*
+     * Reads in chunks that cross the piece boundaries
+     */
+
+    private static byte[] readFully(TorrentInputStream is, int len) throws Exception
+    {
+        byte[] data = new byte[len];
+        int chunkSize = PIECE_LENGTH / 3 * 2;
+        int pos = 0;
+        try {
+            while (pos < len) {
+                int n = is.read(data, pos, Math.min(chunkSize, len - pos));
+                if (n == TorrentInputStream.EOF)
+                    throw new AssertionError("Unexpected EOF at " + pos);
+                pos += n;
+            }
+        } finally {
+            is.close();
+        }
+
+        return data;
+    }
+
+    private TorrentDownload makeTask()
+    {
+        return makeProxy(TorrentDownload.class, (method, args) -> {
+            switch (method) {
+                case "havePiece":
+                    return havePieces.contains((Integer)args[0]);
+                case "readPiece":
+                    int piece = (Integer)args[0];
+                    alertExec.execute(() -> {
+                        ReadPieceInfo info = new ReadPieceInfo(piece, PIECE_LENGTH,
+                                Pointer.nativeValue(pieces[piece]), null);
+                        for (TorrentEngineListener l : listeners)
+                            l.onReadPiece(TORRENT_ID, info);
+                    });
+                    return null;
+                default:
+                    return NO_RESULT;
+            }
+        });
+    }
+
+    private TorrentSession makeSession(TorrentDownload task)
+    {
+        return makeProxy(TorrentSession.class, (method, args) -> {
+            switch (method) {
+                case "getTask":
+                    return (TORRENT_ID.equals(args[0]) ? task : null);
+                case "addListener":
+                    listeners.add((TorrentEngineListener)args[0]);
+                    return null;
+                case "removeListener":
+                    listeners.remove((TorrentEngineListener)args[0]);
+                    return null;
+                default:
+                    return NO_RESULT;
+            }
+        });
+    }
+
+    private static final Object NO_RESULT = new Object();
+
+    private interface Handler
+    {
+        Object invoke(String method, Object[] args);
+    }
+
+    /*
+     * Implements only the methods used by the stream,
+     * the rest return the default value
+     */
+
+    @SuppressWarnings("unchecked")
+    private static <T> T makeProxy(Class<T> type, Handler handler)
+    {
+        return (T)Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{ type },
+                (proxy, method, args) -> {
+                    Object result = handler.invoke(method.getName(), args);
+                    if (result != NO_RESULT)
+                        return result;
+
+                    Class<?> returnType = method.getReturnType();
+                    if (returnType == void.class || !returnType.isPrimitive())
+                        return null;
+
+                    return Array.get(Array.newInstance(returnType, 1), 0);
+                });
+    }
+}
@@ -24,7 +24,9 @@ import android.os.Parcel;
 import android.os.Parcelable;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import org.libtorrent4j.TorrentInfo;
 import org.proninyaroslav.libretorrent.core.model.data.Priority;
 import org.proninyaroslav.libretorrent.core.model.data.entity.TagInfo;
 
@@ -49,6 +51,12 @@ public class AddTorrentParams implements Parcelable {
     @NonNull
     public List<TagInfo> tags;
     public boolean firstLastPiecePriority;
+    /*
+     * Optional already decoded torrent file, so that it isn't decoded
+     * again when adding. Isn't parcelled
+     */
+    @Nullable
+    public TorrentInfo torrentInfo;
 
     public AddTorrentParams(
             @NonNull String source,
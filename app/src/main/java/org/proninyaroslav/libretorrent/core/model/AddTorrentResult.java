@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
+
+/*
+ * Result of adding one torrent in the bulk add
+ */
+
+public class AddTorrentResult
+{
+    @NonNull
+    public final AddTorrentParams params;
+    /* Null if the torrent wasn't added */
+    @Nullable
+    public final Torrent torrent;
+    @Nullable
+    public final Exception error;
+
+    public AddTorrentResult(@NonNull AddTorrentParams params,
+                            @Nullable Torrent torrent,
+                            @Nullable Exception error)
+    {
+        this.params = params;
+        this.torrent = torrent;
+        this.error = error;
+    }
+
+    public boolean isSuccess()
+    {
+        return torrent != null && error == null;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return "AddTorrentResult{" +
+                "name='" + params.name + '\'' +
+                ", torrent=" + torrent +
+                ", error=" + error +
+                '}';
+    }
+}
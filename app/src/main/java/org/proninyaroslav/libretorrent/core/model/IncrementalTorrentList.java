@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model;
+
+import androidx.annotation.NonNull;
+
+import org.proninyaroslav.libretorrent.core.model.data.TorrentInfo;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentInfoListChanges;
+import org.proninyaroslav.libretorrent.core.sorting.TorrentSorting;
+import org.proninyaroslav.libretorrent.core.sorting.TorrentSortingComparator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+
+/*
+ * Filtered and sorted torrent list, that is updated with
+ * the changes from TorrentInfoProvider.observeInfoListChanges().
+ * The filter is applied only to the added and changed items; the list
+ * is sorted again only if the changed fields affect the sort order.
+ */
+
+public class IncrementalTorrentList<T extends TorrentInfo>
+{
+    private final Function<TorrentInfo, T> mapper;
+    /* All torrents, including filtered out */
+    private final LinkedHashMap<String, T> items = new LinkedHashMap<>();
+    private ArrayList<T> visibleItems = new ArrayList<>();
+    private volatile boolean invalidated = true;
+
+    public IncrementalTorrentList(@NonNull Function<TorrentInfo, T> mapper)
+    {
+        this.mapper = mapper;
+    }
+
+    /*
+     * Filter or sorting has changed, the next apply() will rebuild the list
+     */
+
+    public void invalidate()
+    {
+        invalidated = true;
+    }
+
+    /*
+     * Returns a new list, suitable for ListAdapter.submitList()
+     */
+
+    public synchronized List<T> apply(@NonNull TorrentInfoListChanges changes,
+                                      @NonNull Predicate<? super TorrentInfo> filter,
+                                      @NonNull Comparator<? super TorrentInfo> sorting) throws Exception
+    {
+        if (changes.reset)
+            items.clear();
+
+        HashSet<String> removedIds = new HashSet<>(changes.removed);
+        for (String id : changes.removed)
+            items.remove(id);
+
+        ArrayList<T> addedItems = new ArrayList<>(changes.added.size());
+        for (TorrentInfo info : changes.added) {
+            T item = mapper.apply(info);
+            items.put(info.torrentId, item);
+            addedItems.add(item);
+        }
+
+        HashMap<String, T> changedItems = new HashMap<>();
+        boolean needSort = false;
+        for (TorrentInfoListChanges.Changed c : changes.changed) {
+            T item = mapper.apply(c.info);
+            items.put(c.info.torrentId, item);
+            changedItems.put(c.info.torrentId, item);
+            if (!needSort && affectsOrder(sorting, c.fields))
+                needSort = true;
+        }
+
+        if (changes.reset || invalidated) {
+            invalidated = false;
+            rebuild(filter, sorting);
+
+            return new ArrayList<>(visibleItems);
+        }
+
+        ArrayList<T> newVisibleItems = new ArrayList<>(visibleItems.size() + addedItems.size());
+        HashSet<String> visibleIds = new HashSet<>();
+        for (T item : visibleItems) {
+            if (removedIds.contains(item.torrentId))
+                continue;
+
+            T changedItem = changedItems.get(item.torrentId);
+            if (changedItem == null) {
+                newVisibleItems.add(item);
+                visibleIds.add(item.torrentId);
+            } else if (filter.test(changedItem)) {
+                newVisibleItems.add(changedItem);
+                visibleIds.add(item.torrentId);
+            }
+        }
+        /* Items that weren't visible before */
+        for (T item : changedItems.values()) {
+            if (!visibleIds.contains(item.torrentId) && filter.test(item)) {
+                newVisibleItems.add(item);
+                needSort = true;
+            }
+        }
+        for (T item : addedItems) {
+            if (filter.test(item)) {
+                newVisibleItems.add(item);
+                needSort = true;
+            }
+        }
+
+        if (needSort)
+            Collections.sort(newVisibleItems, sorting);
+        visibleItems = newVisibleItems;
+
+        return new ArrayList<>(visibleItems);
+    }
+
+    private void rebuild(Predicate<? super TorrentInfo> filter,
+                         Comparator<? super TorrentInfo> sorting) throws Exception
+    {
+        ArrayList<T> newVisibleItems = new ArrayList<>(items.size());
+        for (T item : items.values()) {
+            if (filter.test(item))
+                newVisibleItems.add(item);
+        }
+        Collections.sort(newVisibleItems, sorting);
+        visibleItems = newVisibleItems;
+    }
+
+    private static boolean affectsOrder(Comparator<? super TorrentInfo> sorting,
+                                        Set<TorrentInfoListChanges.Field> fields)
+    {
+        if (!(sorting instanceof TorrentSortingComparator))
+            return true;
+
+        TorrentSorting.SortingColumns column = TorrentSorting.SortingColumns.fromValue(
+                ((TorrentSortingComparator)sorting).getSorting().getColumnName());
+        switch (column) {
+            case none:
+                return false;
+            case name:
+                return fields.contains(TorrentInfoListChanges.Field.NAME);
+            case size:
+                return fields.contains(TorrentInfoListChanges.Field.SIZE);
+            case progress:
+                return fields.contains(TorrentInfoListChanges.Field.PROGRESS);
+            case ETA:
+                return fields.contains(TorrentInfoListChanges.Field.ETA);
+            case peers:
+                return fields.contains(TorrentInfoListChanges.Field.PEERS);
+            case dateAdded:
+                return fields.contains(TorrentInfoListChanges.Field.DATE_ADDED);
+            default:
+                return true;
+        }
+    }
+}
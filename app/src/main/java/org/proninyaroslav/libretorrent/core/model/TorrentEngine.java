@@ -42,15 +42,21 @@ import org.proninyaroslav.libretorrent.core.logger.Logger;
 import org.proninyaroslav.libretorrent.core.model.data.AdvancedTorrentInfo;
 import org.proninyaroslav.libretorrent.core.model.data.MagnetInfo;
 import org.proninyaroslav.libretorrent.core.model.data.PeerInfo;
+import org.proninyaroslav.libretorrent.core.model.data.PieceBitfield;
 import org.proninyaroslav.libretorrent.core.model.data.Priority;
+import org.proninyaroslav.libretorrent.core.model.data.RestoreProgress;
+import org.proninyaroslav.libretorrent.core.model.data.ShutdownProgress;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentInfo;
 import org.proninyaroslav.libretorrent.core.model.data.TrackerInfo;
 import org.proninyaroslav.libretorrent.core.model.data.entity.TagInfo;
 import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
+import org.proninyaroslav.libretorrent.core.model.data.metainfo.TorrentInfoDecoder;
 import org.proninyaroslav.libretorrent.core.model.data.metainfo.TorrentMetaInfo;
 import org.proninyaroslav.libretorrent.core.model.session.TorrentDownload;
 import org.proninyaroslav.libretorrent.core.model.session.TorrentSession;
 import org.proninyaroslav.libretorrent.core.model.session.TorrentSessionImpl;
+import org.proninyaroslav.libretorrent.core.model.session.TorrentStatusSnapshot;
+import org.proninyaroslav.libretorrent.core.model.stream.PieceCache;
 import org.proninyaroslav.libretorrent.core.model.stream.TorrentInputStream;
 import org.proninyaroslav.libretorrent.core.model.stream.TorrentStream;
 import org.proninyaroslav.libretorrent.core.model.stream.TorrentStreamServer;
@@ -74,8 +80,10 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
@@ -237,6 +245,16 @@ public class TorrentEngine
         }, BackpressureStrategy.LATEST);
     }
 
+    public Flowable<RestoreProgress> observeRestoreProgress()
+    {
+        return session.observeRestoreProgress();
+    }
+
+    public Flowable<ShutdownProgress> observeShutdownProgress()
+    {
+        return session.observeShutdownProgress();
+    }
+
     /*
      * Only calls from TorrentService
      */
@@ -365,16 +383,13 @@ public class TorrentEngine
         if (!isRunning())
             return;
 
-        disposables.add(Observable.fromIterable(paramsList)
-                .subscribeOn(Schedulers.io())
-                .subscribe((params) -> {
-                    try {
-                        session.addTorrent(params, removeFile);
-
-                    } catch (Exception e) {
-                        handleAddTorrentError(params.name, e);
-                    }
-                }));
+        disposables.add(Completable.fromRunnable(() -> {
+            for (AddTorrentResult res : session.addTorrents(paramsList, removeFile)) {
+                if (res.error != null)
+                    handleAddTorrentError(res.params.name, res.error);
+            }
+        }).subscribeOn(Schedulers.io())
+          .subscribe());
     }
 
     public void addTorrent(@NonNull Uri file)
@@ -403,13 +418,15 @@ public class TorrentEngine
            try (FileDescriptorWrapper w = fs.getFD(file)) {
                FileDescriptor outFd = w.open("r");
 
+               org.libtorrent4j.TorrentInfo ti;
                try(FileInputStream is = new FileInputStream(outFd)) {
-                   info = new TorrentMetaInfo(is);
+                   ti = TorrentInfoDecoder.decode(is);
+                   info = new TorrentMetaInfo(ti);
 
                } catch (Exception e) {
                    throw new DecodeException(e);
                }
-               addTorrentSync(file, info, savePath);
+               addTorrentSync(makeAddTorrentParams(file, info, ti, savePath), false);
 
            } catch (Exception e) {
                handleAddTorrentError((info == null ? file.getPath() : info.torrentName), e);
@@ -679,14 +696,14 @@ public class TorrentEngine
         return info;
     }
 
-    public boolean[] getPieces(@NonNull String id)
+    public PieceBitfield getPieces(@NonNull String id)
     {
         if (!isRunning())
-            return new boolean[0];
+            return PieceBitfield.EMPTY;
 
         TorrentDownload task = session.getTask(id);
         if (task == null)
-            return new boolean[0];
+            return PieceBitfield.EMPTY;
 
         return task.pieces();
     }
@@ -809,6 +826,76 @@ public class TorrentEngine
         return new TorrentInputStream(session, stream);
     }
 
+    /*
+     * Opens the file of the stream on the disk, positioned at the start, if
+     * the range lies entirely in the downloaded pieces. Returns null if
+     * the range must be read through the torrent.
+     * Do not run in the UI thread
+     */
+
+    public FileInputStream openDownloadedRange(@NonNull TorrentStream stream, long start, long end)
+    {
+        if (!isRunning() || stream.filePath == null || start > end)
+            return null;
+
+        TorrentDownload task = session.getTask(stream.torrentId);
+        if (task == null)
+            return null;
+
+        /* Data of the ignored file can be stored in the parts file */
+        Priority[] priorities = task.getFilePriorities();
+        if (priorities == null || stream.selectedFileIndex >= priorities.length ||
+            priorities[stream.selectedFileIndex] == Priority.IGNORE)
+            return null;
+
+        PieceBitfield pieces = task.pieces();
+        int lastPiece = stream.fileOffsetToPieceIndex(end);
+        if (lastPiece >= pieces.size() ||
+            pieces.nextClearBit(stream.fileOffsetToPieceIndex(start)) <= lastPiece)
+            return null;
+
+        Torrent torrent = repo.getTorrentById(stream.torrentId);
+        if (torrent == null)
+            return null;
+
+        FileDescriptorWrapper w = null;
+        try {
+            Uri path = fs.getFileUri(stream.filePath, torrent.downloadPath);
+            if (path == null)
+                return null;
+            w = fs.getFD(path);
+            FileDescriptor fd = w.open("r");
+
+            FileDescriptorWrapper wrapper = w;
+            FileInputStream is = new FileInputStream(fd) {
+                @Override
+                public void close() throws IOException
+                {
+                    try {
+                        super.close();
+                    } finally {
+                        wrapper.close();
+                    }
+                }
+            };
+            is.getChannel().position(start);
+
+            return is;
+
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to open " + stream.filePath + ": " + Log.getStackTraceString(e));
+            if (w != null) {
+                try {
+                    w.close();
+                } catch (IOException ignored) {
+                    /* Ignore */
+                }
+            }
+
+            return null;
+        }
+    }
+
     /*
      * Do not run in the UI thread
      */
@@ -834,22 +921,26 @@ public class TorrentEngine
                     tags
             );
         } else {
+            TorrentStatusSnapshot status = session.getStatusSnapshot(torrent.id);
+            if (status == null)
+                status = task.getStatusSnapshot();
+
             return new TorrentInfo(
                     torrent.id,
                     torrent.name,
-                    task.getStateCode(),
-                    task.getProgress(),
-                    task.getReceivedBytes(),
-                    task.getTotalSentBytes(),
-                    task.getTotalWanted(),
-                    task.getDownloadSpeed(),
-                    task.getUploadSpeed(),
-                    task.getETA(),
+                    status.stateCode,
+                    status.progress,
+                    status.receivedBytes,
+                    status.totalSentBytes,
+                    status.totalWanted,
+                    status.downloadSpeed,
+                    status.uploadSpeed,
+                    status.eta,
                     torrent.dateAdded,
-                    task.getTotalPeers(),
-                    task.getConnectedPeers(),
+                    status.totalPeers,
+                    status.connectedPeers,
                     torrent.error,
-                    task.isSequentialDownload(),
+                    status.sequentialDownload,
                     task.getFilePriorities(),
                     tags,
                     task.isFirstLastPiecePriority()
@@ -863,13 +954,35 @@ public class TorrentEngine
 
     public List<TorrentInfo> makeInfoListSync() {
         ArrayList<TorrentInfo> stateList = new ArrayList<>();
+        Map<String, List<TagInfo>> torrentTags = tagRepo.getAllTorrentTags();
 
         for (Torrent torrent : repo.getAllTorrents()) {
             if (torrent == null) {
                 continue;
             }
-            List<TagInfo> tags = tagRepo.getByTorrentId(torrent.id);
-            stateList.add(makeInfo(torrent, tags));
+            List<TagInfo> tags = torrentTags.get(torrent.id);
+            stateList.add(makeInfo(torrent, tags == null ? new ArrayList<>() : tags));
+        }
+
+        return stateList;
+    }
+
+    /*
+     * Builds the info of the given torrents only, the removed torrents are skipped.
+     * Do not run in the UI thread
+     */
+
+    public List<TorrentInfo> makeInfoListSync(@NonNull Collection<String> ids) {
+        ArrayList<TorrentInfo> stateList = new ArrayList<>(ids.size());
+        Map<String, List<TagInfo>> torrentTags = tagRepo.getAllTorrentTags();
+
+        for (String id : ids) {
+            Torrent torrent = repo.getTorrentById(id);
+            if (torrent == null) {
+                continue;
+            }
+            List<TagInfo> tags = torrentTags.get(id);
+            stateList.add(makeInfo(torrent, tags == null ? new ArrayList<>() : tags));
         }
 
         return stateList;
@@ -893,20 +1006,23 @@ public class TorrentEngine
             return null;
 
         int[] piecesAvail = task.getPiecesAvailability();
+        TorrentStatusSnapshot status = session.getStatusSnapshot(id);
+        if (status == null)
+            status = task.getStatusSnapshot();
 
         return new AdvancedTorrentInfo(
                 torrent.id,
                 task.getFilesReceivedBytes(),
-                task.getTotalSeeds(),
-                task.getConnectedSeeds(),
-                task.getNumDownloadedPieces(),
-                task.getShareRatio(),
-                task.getActiveTime(),
-                task.getSeedingTime(),
+                status.totalSeeds,
+                status.connectedSeeds,
+                status.numDownloadedPieces,
+                status.shareRatio,
+                status.activeTime,
+                status.seedingTime,
                 task.getAvailability(piecesAvail),
                 task.getFilesAvailability(piecesAvail),
-                task.getConnectedLeechers(),
-                task.getTotalLeechers());
+                status.connectedLeechers,
+                status.totalLeechers);
     }
 
     public List<TrackerInfo> makeTrackerInfoList(@NonNull String id)
@@ -1130,6 +1246,7 @@ public class TorrentEngine
 
         String hostname = pref.streamingHostname();
         int port = pref.streamingPort();
+        applyStreamingCacheSize();
 
         torrentStreamServer = new TorrentStreamServer(hostname, port);
         try {
@@ -1141,6 +1258,11 @@ public class TorrentEngine
         }
     }
 
+    private void applyStreamingCacheSize()
+    {
+        PieceCache.getInstance().setMaxSize(pref.streamingCacheSize() * 1024L * 1024L);
+    }
+
     private void stopStreamingServer()
     {
         if (torrentStreamServer != null)
@@ -1237,19 +1359,43 @@ public class TorrentEngine
         File dir = new File(pathToDir);
         if (!dir.exists())
             return;
-        for (File file : org.apache.commons.io.FileUtils.listFiles(dir, FileFilterUtils.suffixFileFilter(".torrent"), null)) {
-            if (!file.exists())
-                continue;
-            addTorrent(Uri.fromFile(file));
-        }
+        disposables.add(Completable.fromRunnable(() -> {
+            ArrayList<AddTorrentParams> paramsList = new ArrayList<>();
+            for (File file : org.apache.commons.io.FileUtils.listFiles(dir, FileFilterUtils.suffixFileFilter(".torrent"), null)) {
+                if (!file.exists())
+                    continue;
+
+                Uri uri = Uri.fromFile(file);
+                TorrentMetaInfo info = null;
+                try (FileDescriptorWrapper w = fs.getFD(uri)) {
+                    FileDescriptor outFd = w.open("r");
+
+                    org.libtorrent4j.TorrentInfo ti;
+                    try (FileInputStream is = new FileInputStream(outFd)) {
+                        ti = TorrentInfoDecoder.decode(is);
+                        info = new TorrentMetaInfo(ti);
+
+                    } catch (Exception e) {
+                        throw new DecodeException(e);
+                    }
+                    paramsList.add(makeAddTorrentParams(uri, info, ti, null));
+
+                } catch (Exception e) {
+                    handleAddTorrentError((info == null ? uri.getPath() : info.torrentName), e);
+                }
+            }
+            /* Add all at once instead of a file at a time */
+            addTorrents(paramsList, false);
+
+        }).subscribeOn(Schedulers.io())
+          .subscribe());
     }
 
-    private Torrent addTorrentSync(Uri file, TorrentMetaInfo info, Uri savePath)
-            throws IOException,
-            FreeSpaceException,
-            TorrentAlreadyExistsException,
-            DecodeException,
-            UnknownUriException
+    private AddTorrentParams makeAddTorrentParams(Uri file,
+                                                  TorrentMetaInfo info,
+                                                  org.libtorrent4j.TorrentInfo ti,
+                                                  Uri savePath)
+            throws FreeSpaceException, UnknownUriException
     {
         Priority[] priorities = new Priority[info.fileCount];
         Arrays.fill(priorities, Priority.DEFAULT);
@@ -1267,12 +1413,13 @@ public class TorrentEngine
                 new ArrayList<>(),
                 false
         );
+        params.torrentInfo = ti;
 
         if (fs.getDirAvailableBytes(downloadPath) < info.torrentSize) {
             throw new FreeSpaceException();
         }
 
-        return addTorrentSync(params, false);
+        return params;
     }
 
     private void handleAddTorrentError(String name, Throwable e)
@@ -1701,6 +1848,9 @@ public class TorrentEngine
                 key.equals(appContext.getString(R.string.pref_key_streaming_hostname))) {
             startStreamingServer();
 
+        } else if (key.equals(appContext.getString(R.string.pref_key_streaming_cache_size))) {
+            applyStreamingCacheSize();
+
         } else if (key.equals(appContext.getString(R.string.pref_key_anonymous_mode))) {
             SessionSettings s = session.getSettings();
             s.anonymousMode = pref.anonymousMode();
@@ -25,6 +25,8 @@ import org.proninyaroslav.libretorrent.core.model.data.ReadPieceInfo;
 import org.proninyaroslav.libretorrent.core.model.data.SessionStats;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
 
+import java.util.Set;
+
 public abstract class TorrentEngineListener
 {
     public void onTorrentAdded(@NonNull String id) {}
@@ -70,4 +72,10 @@ public abstract class TorrentEngineListener
     public void onPieceFinished(@NonNull String id, int piece) {}
 
     public void onSessionStats(@NonNull SessionStats stats) {}
+
+    /*
+     * Status (progress, speed, peers, etc.) of these torrents has changed
+     */
+
+    public void onTorrentsStatusChanged(@NonNull Set<String> ids) {}
 }
@@ -27,14 +27,23 @@ import androidx.annotation.NonNull;
 import org.proninyaroslav.libretorrent.core.RepositoryHelper;
 import org.proninyaroslav.libretorrent.core.model.data.AdvancedTorrentInfo;
 import org.proninyaroslav.libretorrent.core.model.data.PeerInfo;
+import org.proninyaroslav.libretorrent.core.model.data.PieceBitfield;
 import org.proninyaroslav.libretorrent.core.model.data.SessionStats;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentInfo;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentInfoListChanges;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
 import org.proninyaroslav.libretorrent.core.model.data.TrackerInfo;
+import org.proninyaroslav.libretorrent.core.model.data.entity.TagInfo;
 import org.proninyaroslav.libretorrent.core.storage.TagRepository;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -99,6 +108,15 @@ public class TorrentInfoProvider {
         return makeInfoListFlowable();
     }
 
+    /*
+     * Unlike observeInfoList(), emits only the difference with the previous state.
+     * The first item always contains the whole list
+     */
+
+    public Flowable<TorrentInfoListChanges> observeInfoListChanges() {
+        return makeInfoListChangesFlowable();
+    }
+
     public Single<List<TorrentInfo>> getInfoListSingle() {
         return makeInfoListSingle();
     }
@@ -115,7 +133,7 @@ public class TorrentInfoProvider {
         return makePeersInfoFlowable(id);
     }
 
-    public Flowable<boolean[]> observePiecesInfo(@NonNull String id) {
+    public Flowable<PieceBitfield> observePiecesInfo(@NonNull String id) {
         return makePiecesFlowable(id);
     }
 
@@ -242,47 +260,14 @@ public class TorrentInfoProvider {
             Runnable handleInfo = () -> {
                 List<TorrentInfo> newInfoList = engine.makeInfoListSync();
                 List<TorrentInfo> oldInfoList = infoList.get();
-                if (oldInfoList == null || oldInfoList.size() != newInfoList.size() ||
-                        !oldInfoList.containsAll(newInfoList)) {
+                if (oldInfoList == null || !oldInfoList.equals(newInfoList)) {
                     infoList.set(newInfoList);
                     if (!emitter.isCancelled())
                         emitter.onNext(newInfoList);
                 }
             };
 
-            TorrentEngineListener listener = new TorrentEngineListener() {
-                @Override
-                public void onTorrentStateChanged(@NonNull String torrentId,
-                                                  @NonNull TorrentStateCode prevState,
-                                                  @NonNull TorrentStateCode curState) {
-                    handleInfo.run();
-                }
-
-                @Override
-                public void onTorrentPaused(@NonNull String torrentId) {
-                    handleInfo.run();
-                }
-
-                @Override
-                public void onTorrentRemoved(@NonNull String torrentId) {
-                    handleInfo.run();
-                }
-
-                @Override
-                public void onRestoreSessionError(@NonNull String torrentId) {
-                    handleInfo.run();
-                }
-
-                @Override
-                public void onTorrentError(@NonNull String torrentId, Exception e) {
-                    handleInfo.run();
-                }
-
-                @Override
-                public void onSessionStats(@NonNull SessionStats stats) {
-                    handleInfo.run();
-                }
-            };
+            TorrentEngineListener listener = makeInfoListListener(handleInfo);
 
             if (!emitter.isCancelled()) {
                 Thread t = new Thread(() -> {
@@ -307,6 +292,209 @@ public class TorrentInfoProvider {
         }, BackpressureStrategy.LATEST);
     }
 
+    private interface InfoListUpdater {
+        void update(Collection<String> ids);
+    }
+
+    private Flowable<TorrentInfoListChanges> makeInfoListChangesFlowable() {
+        return Flowable.create((emitter) -> {
+            /* Torrent id -> last emitted info, updated in place by the events */
+            final LinkedHashMap<String, TorrentInfo> index = new LinkedHashMap<>();
+
+            InfoListUpdater handleInfo = (ids) -> {
+                synchronized (index) {
+                    TorrentInfoListChanges changes = updateInfoIndex(index, ids);
+                    if (!changes.isEmpty() && !emitter.isCancelled())
+                        emitter.onNext(changes);
+                }
+            };
+
+            TorrentEngineListener listener = makeInfoListChangesListener(handleInfo);
+
+            if (!emitter.isCancelled()) {
+                Thread t = new Thread(() -> {
+                    synchronized (index) {
+                        List<TorrentInfo> infoList = engine.makeInfoListSync();
+                        for (TorrentInfo info : infoList)
+                            index.put(info.torrentId, info);
+                        if (emitter.isCancelled())
+                            return;
+                        /* Emit once to avoid missing any data and also easy chaining */
+                        emitter.onNext(TorrentInfoListChanges.makeReset(infoList));
+                    }
+                    engine.addListener(listener);
+                    CompositeDisposable disposables = new CompositeDisposable();
+                    disposables.add(Disposables.fromAction(() ->
+                            engine.removeListener(listener))
+                    );
+                    disposables.add(tagRepo.observeAll()
+                            .subscribe((__) -> handleInfo.update(findTagsChanged(index)))
+                    );
+                    emitter.setDisposable(disposables);
+                });
+                t.start();
+            }
+
+        }, BackpressureStrategy.BUFFER);
+    }
+
+    /*
+     * Rebuilds the info of the given torrents only, updates the index
+     * and returns the difference between the old and the new state
+     */
+
+    private TorrentInfoListChanges updateInfoIndex(Map<String, TorrentInfo> index,
+                                                   Collection<String> ids) {
+        ArrayList<TorrentInfo> added = new ArrayList<>();
+        ArrayList<String> removed = new ArrayList<>();
+        ArrayList<TorrentInfoListChanges.Changed> changed = new ArrayList<>();
+        if (ids.isEmpty())
+            return new TorrentInfoListChanges(false, added, removed, changed);
+
+        HashSet<String> found = new HashSet<>(ids.size());
+        for (TorrentInfo info : engine.makeInfoListSync(ids)) {
+            found.add(info.torrentId);
+            TorrentInfo oldInfo = index.put(info.torrentId, info);
+            if (oldInfo == null) {
+                added.add(info);
+            } else {
+                Set<TorrentInfoListChanges.Field> fields =
+                        TorrentInfoListChanges.Field.diff(oldInfo, info);
+                if (!fields.isEmpty())
+                    changed.add(new TorrentInfoListChanges.Changed(info, fields));
+            }
+        }
+        for (String id : ids) {
+            if (!found.contains(id) && index.remove(id) != null)
+                removed.add(id);
+        }
+
+        return new TorrentInfoListChanges(false, added, removed, changed);
+    }
+
+    /*
+     * Tag events don't say which torrents are affected,
+     * so compare the tags with the cached torrent tags
+     */
+
+    private Set<String> findTagsChanged(Map<String, TorrentInfo> index) {
+        Map<String, List<TagInfo>> torrentTags = tagRepo.getAllTorrentTags();
+        HashSet<String> ids = new HashSet<>();
+        synchronized (index) {
+            for (TorrentInfo info : index.values()) {
+                List<TagInfo> tags = torrentTags.get(info.torrentId);
+                if (tags == null)
+                    tags = Collections.emptyList();
+                if (!tags.equals(info.tags == null ? Collections.emptyList() : info.tags))
+                    ids.add(info.torrentId);
+            }
+        }
+
+        return ids;
+    }
+
+    private TorrentEngineListener makeInfoListChangesListener(InfoListUpdater handleInfo) {
+        return new TorrentEngineListener() {
+            @Override
+            public void onTorrentAdded(@NonNull String torrentId) {
+                handleInfo.update(Collections.singleton(torrentId));
+            }
+
+            @Override
+            public void onTorrentLoaded(@NonNull String torrentId) {
+                handleInfo.update(Collections.singleton(torrentId));
+            }
+
+            @Override
+            public void onTorrentStateChanged(@NonNull String torrentId,
+                                              @NonNull TorrentStateCode prevState,
+                                              @NonNull TorrentStateCode curState) {
+                handleInfo.update(Collections.singleton(torrentId));
+            }
+
+            @Override
+            public void onTorrentFinished(@NonNull String torrentId) {
+                handleInfo.update(Collections.singleton(torrentId));
+            }
+
+            @Override
+            public void onTorrentPaused(@NonNull String torrentId) {
+                handleInfo.update(Collections.singleton(torrentId));
+            }
+
+            @Override
+            public void onTorrentResumed(@NonNull String torrentId) {
+                handleInfo.update(Collections.singleton(torrentId));
+            }
+
+            @Override
+            public void onTorrentRemoved(@NonNull String torrentId) {
+                handleInfo.update(Collections.singleton(torrentId));
+            }
+
+            @Override
+            public void onTorrentMoved(@NonNull String torrentId, boolean success) {
+                handleInfo.update(Collections.singleton(torrentId));
+            }
+
+            @Override
+            public void onTorrentMetadataLoaded(@NonNull String torrentId, Exception err) {
+                handleInfo.update(Collections.singleton(torrentId));
+            }
+
+            @Override
+            public void onRestoreSessionError(@NonNull String torrentId) {
+                handleInfo.update(Collections.singleton(torrentId));
+            }
+
+            @Override
+            public void onTorrentError(@NonNull String torrentId, Exception e) {
+                handleInfo.update(Collections.singleton(torrentId));
+            }
+
+            @Override
+            public void onTorrentsStatusChanged(@NonNull Set<String> ids) {
+                handleInfo.update(ids);
+            }
+        };
+    }
+
+    private TorrentEngineListener makeInfoListListener(Runnable handleInfo) {
+        return new TorrentEngineListener() {
+            @Override
+            public void onTorrentStateChanged(@NonNull String torrentId,
+                                              @NonNull TorrentStateCode prevState,
+                                              @NonNull TorrentStateCode curState) {
+                handleInfo.run();
+            }
+
+            @Override
+            public void onTorrentPaused(@NonNull String torrentId) {
+                handleInfo.run();
+            }
+
+            @Override
+            public void onTorrentRemoved(@NonNull String torrentId) {
+                handleInfo.run();
+            }
+
+            @Override
+            public void onRestoreSessionError(@NonNull String torrentId) {
+                handleInfo.run();
+            }
+
+            @Override
+            public void onTorrentError(@NonNull String torrentId, Exception e) {
+                handleInfo.run();
+            }
+
+            @Override
+            public void onSessionStats(@NonNull SessionStats stats) {
+                handleInfo.run();
+            }
+        };
+    }
+
     private Single<List<TorrentInfo>> makeInfoListSingle() {
         return Single.create((emitter) -> {
             if (!emitter.isDisposed()) {
@@ -420,15 +608,15 @@ public class TorrentInfoProvider {
         }, BackpressureStrategy.LATEST);
     }
 
-    private Flowable<boolean[]> makePiecesFlowable(String id) {
+    private Flowable<PieceBitfield> makePiecesFlowable(String id) {
         return Flowable.create((emitter) -> {
-            final AtomicReference<boolean[]> infoList = new AtomicReference<>();
+            final AtomicReference<PieceBitfield> infoList = new AtomicReference<>();
 
             Disposable d = Observable.interval(GET_INFO_SYNC_TIME, TimeUnit.MILLISECONDS)
                     .subscribe((__) -> {
-                                boolean[] newInfoList = engine.getPieces(id);
-                                boolean[] oldInfoList = infoList.get();
-                                if (!Arrays.equals(oldInfoList, newInfoList)) {
+                                PieceBitfield newInfoList = engine.getPieces(id);
+                                PieceBitfield oldInfoList = infoList.get();
+                                if (!newInfoList.equals(oldInfoList)) {
                                     infoList.set(newInfoList);
                                     if (!emitter.isCancelled())
                                         emitter.onNext(newInfoList);
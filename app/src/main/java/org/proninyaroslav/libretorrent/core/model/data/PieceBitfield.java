@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.data;
+
+import androidx.annotation.NonNull;
+
+import java.util.BitSet;
+
+/*
+ * Immutable snapshot of the downloaded pieces, packed into 64-bit words.
+ * Two snapshots are compared word by word, not piece by piece.
+ */
+
+public class PieceBitfield
+{
+    public static final PieceBitfield EMPTY = new PieceBitfield(0, new BitSet(0));
+
+    private final int size;
+    private final int cardinality;
+    private final BitSet bits;
+
+    /*
+     * Takes ownership of the bits, they must not be modified after that
+     */
+
+    public PieceBitfield(int size, @NonNull BitSet bits)
+    {
+        this.size = size;
+        this.bits = bits;
+        cardinality = bits.cardinality();
+    }
+
+    /*
+     * Number of pieces
+     */
+
+    public int size()
+    {
+        return size;
+    }
+
+    /*
+     * Number of downloaded pieces
+     */
+
+    public int cardinality()
+    {
+        return cardinality;
+    }
+
+    public boolean get(int index)
+    {
+        return bits.get(index);
+    }
+
+    public int nextSetBit(int fromIndex)
+    {
+        return bits.nextSetBit(fromIndex);
+    }
+
+    public int nextClearBit(int fromIndex)
+    {
+        return bits.nextClearBit(fromIndex);
+    }
+
+    @NonNull
+    public BitSet copyBits()
+    {
+        return (BitSet)bits.clone();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        PieceBitfield that = (PieceBitfield)o;
+
+        return size == that.size &&
+                cardinality == that.cardinality &&
+                bits.equals(that.bits);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = size;
+        result = 31 * result + bits.hashCode();
+
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return "PieceBitfield{" +
+                "size=" + size +
+                ", cardinality=" + cardinality +
+                '}';
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.data;
+
+import androidx.annotation.NonNull;
+
+/*
+ * Progress of restoring torrents from the previous session
+ */
+
+public class RestoreProgress
+{
+    public final int total;
+    public final int restored;
+    public final int failed;
+
+    public RestoreProgress(int total, int restored, int failed)
+    {
+        this.total = total;
+        this.restored = restored;
+        this.failed = failed;
+    }
+
+    public boolean isFinished()
+    {
+        return restored + failed >= total;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        RestoreProgress that = (RestoreProgress)o;
+
+        return total == that.total &&
+                restored == that.restored &&
+                failed == that.failed;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = total;
+        result = 31 * result + restored;
+        result = 31 * result + failed;
+
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return "RestoreProgress{" +
+                "total=" + total +
+                ", restored=" + restored +
+                ", failed=" + failed +
+                '}';
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.data;
+
+import androidx.annotation.NonNull;
+
+/*
+ * Progress of stopping the session: torrents whose state is saved and stopped
+ */
+
+public class ShutdownProgress
+{
+    public final int total;
+    public final int saved;
+
+    public ShutdownProgress(int total, int saved)
+    {
+        this.total = total;
+        this.saved = saved;
+    }
+
+    public boolean isFinished()
+    {
+        return saved >= total;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        ShutdownProgress that = (ShutdownProgress)o;
+
+        return total == that.total &&
+                saved == that.saved;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = total;
+        result = 31 * result + saved;
+
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return "ShutdownProgress{" +
+                "total=" + total +
+                ", saved=" + saved +
+                '}';
+    }
+}
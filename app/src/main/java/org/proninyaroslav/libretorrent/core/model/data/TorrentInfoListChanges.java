@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.data;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/*
+ * Difference between two consecutive states of the torrent list.
+ * If reset is true, the receiver must drop its own state, since
+ * the added list contains all torrents.
+ */
+
+public class TorrentInfoListChanges
+{
+    public enum Field
+    {
+        NAME,
+        STATE,
+        /* Progress, received and uploaded bytes */
+        PROGRESS,
+        SIZE,
+        SPEED,
+        ETA,
+        PEERS,
+        DATE_ADDED,
+        ERROR,
+        TAGS,
+        /* Sequential download, file priorities, first/last piece priority */
+        OPTIONS;
+
+        @NonNull
+        public static Set<Field> diff(@NonNull TorrentInfo oldInfo, @NonNull TorrentInfo newInfo)
+        {
+            EnumSet<Field> fields = EnumSet.noneOf(Field.class);
+
+            if (!Objects.equals(oldInfo.name, newInfo.name))
+                fields.add(NAME);
+            if (oldInfo.stateCode != newInfo.stateCode)
+                fields.add(STATE);
+            if (oldInfo.progress != newInfo.progress ||
+                    oldInfo.receivedBytes != newInfo.receivedBytes ||
+                    oldInfo.uploadedBytes != newInfo.uploadedBytes)
+                fields.add(PROGRESS);
+            if (oldInfo.totalBytes != newInfo.totalBytes)
+                fields.add(SIZE);
+            if (oldInfo.downloadSpeed != newInfo.downloadSpeed ||
+                    oldInfo.uploadSpeed != newInfo.uploadSpeed)
+                fields.add(SPEED);
+            if (oldInfo.ETA != newInfo.ETA)
+                fields.add(ETA);
+            if (oldInfo.totalPeers != newInfo.totalPeers || oldInfo.peers != newInfo.peers)
+                fields.add(PEERS);
+            if (oldInfo.dateAdded != newInfo.dateAdded)
+                fields.add(DATE_ADDED);
+            if (!Objects.equals(oldInfo.error, newInfo.error))
+                fields.add(ERROR);
+            if (!Objects.equals(oldInfo.tags, newInfo.tags))
+                fields.add(TAGS);
+            if (oldInfo.sequentialDownload != newInfo.sequentialDownload ||
+                    oldInfo.firstLastPiecePriority != newInfo.firstLastPiecePriority ||
+                    !Arrays.equals(oldInfo.filePriorities, newInfo.filePriorities))
+                fields.add(OPTIONS);
+
+            return fields;
+        }
+    }
+
+    public static class Changed
+    {
+        @NonNull
+        public final TorrentInfo info;
+        @NonNull
+        public final Set<Field> fields;
+
+        public Changed(@NonNull TorrentInfo info, @NonNull Set<Field> fields)
+        {
+            this.info = info;
+            this.fields = fields;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return "Changed{" +
+                    "torrentId='" + info.torrentId + '\'' +
+                    ", fields=" + fields +
+                    '}';
+        }
+    }
+
+    public final boolean reset;
+    @NonNull
+    public final List<TorrentInfo> added;
+    @NonNull
+    public final List<String> removed;
+    @NonNull
+    public final List<Changed> changed;
+
+    public TorrentInfoListChanges(boolean reset,
+                                  @NonNull List<TorrentInfo> added,
+                                  @NonNull List<String> removed,
+                                  @NonNull List<Changed> changed)
+    {
+        this.reset = reset;
+        this.added = added;
+        this.removed = removed;
+        this.changed = changed;
+    }
+
+    public static TorrentInfoListChanges makeReset(@NonNull List<TorrentInfo> infoList)
+    {
+        return new TorrentInfoListChanges(true, infoList,
+                Collections.emptyList(), Collections.emptyList());
+    }
+
+    public boolean isEmpty()
+    {
+        return !reset && added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return "TorrentInfoListChanges{" +
+                "reset=" + reset +
+                ", added=" + added.size() +
+                ", removed=" + removed +
+                ", changed=" + changed +
+                '}';
+    }
+}
@@ -67,6 +67,13 @@ public class Torrent implements Parcelable
     public boolean downloadingMetadata = false;
     public int visibility = VISIBILITY_VISIBLE_NOTIFY_FINISHED;
     public boolean firstLastPiecePriority;
+    /*
+     * Taken from the resume data when it's saved, used to find
+     * out the restore order without reading the resume data
+     */
+    public boolean completed = false;
+    /* The last time of download or upload, in milliseconds */
+    public long lastActiveTime = 0;
 
     @Ignore
     public Torrent(@NonNull String id,
@@ -100,6 +107,24 @@ public class Torrent implements Parcelable
         this.magnet = magnet;
     }
 
+    @Ignore
+    public Torrent(@NonNull Torrent torrent)
+    {
+        id = torrent.id;
+        magnet = torrent.magnet;
+        downloadPath = torrent.downloadPath;
+        name = torrent.name;
+        downloadingMetadata = torrent.downloadingMetadata;
+        dateAdded = torrent.dateAdded;
+        error = torrent.error;
+        manuallyPaused = torrent.manuallyPaused;
+        visibility = torrent.visibility;
+        sequentialDownload = torrent.sequentialDownload;
+        firstLastPiecePriority = torrent.firstLastPiecePriority;
+        completed = torrent.completed;
+        lastActiveTime = torrent.lastActiveTime;
+    }
+
     @Ignore
     public Torrent(Parcel source)
     {
@@ -114,6 +139,8 @@ public class Torrent implements Parcelable
         visibility = source.readInt();
         sequentialDownload = source.readByte() != 0;
         firstLastPiecePriority = source.readByte() != 0;
+        completed = source.readByte() != 0;
+        lastActiveTime = source.readLong();
     }
 
     public boolean isDownloadingMetadata()
@@ -152,6 +179,8 @@ public class Torrent implements Parcelable
         dest.writeInt(visibility);
         dest.writeByte((byte)(sequentialDownload ? 1 : 0));
         dest.writeByte((byte)(firstLastPiecePriority ? 1 : 0));
+        dest.writeByte((byte)(completed ? 1 : 0));
+        dest.writeLong(lastActiveTime);
     }
 
     public static final Creator<Torrent> CREATOR = new Creator<>()
@@ -196,6 +225,8 @@ public class Torrent implements Parcelable
                 ", downloadingMetadata=" + downloadingMetadata +
                 ", visibility=" + visibility +
                 ", firstLastPiecePriority=" + firstLastPiecePriority +
+                ", completed=" + completed +
+                ", lastActiveTime=" + lastActiveTime +
                 '}';
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.data.metainfo;
+
+import androidx.annotation.NonNull;
+
+import org.libtorrent4j.TorrentInfo;
+import org.proninyaroslav.libretorrent.core.exception.DecodeException;
+
+import java.io.FileInputStream;
+import java.nio.channels.FileChannel;
+
+/*
+ * Decodes torrent files for the add path. The decoded torrent is carried
+ * to the session in AddTorrentParams, so that the file is decoded once
+ */
+
+public class TorrentInfoDecoder
+{
+    @NonNull
+    public static TorrentInfo decode(@NonNull FileInputStream is) throws DecodeException
+    {
+        TorrentInfo ti;
+        try (FileChannel chan = is.getChannel()) {
+            ti = new TorrentInfo(chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size()));
+
+        } catch (Exception e) {
+            throw new DecodeException(e);
+        }
+        if (!ti.isValid())
+            throw new DecodeException("Torrent info not valid");
+
+        return ti;
+    }
+}
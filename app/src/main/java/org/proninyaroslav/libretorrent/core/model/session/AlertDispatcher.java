@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Moves the alert handling work off the libtorrent alert thread.
+ * The alert thread only decodes alerts (the alert memory is valid only there)
+ * and passes the rest of the work to one of two stages:
+ *
+ *  - persist: database and file system operations;
+ *  - notify: listeners fan-out.
+ *
+ * Each stage is a single thread with a bounded queue, so the order of the events
+ * is preserved. If the queue is full, the alert thread waits for a free slot.
+ * High-rate events (session stats, finished pieces) can be merged by key:
+ * only the latest event is delivered. If the stage is saturated, the merged event
+ * isn't dropped (listeners may use it as a wake-up signal), it stays pending
+ * until the stage frees a slot.
+ */
+
+class AlertDispatcher
+{
+    private static final String TAG = AlertDispatcher.class.getSimpleName();
+
+    private static final long IDLE_THREAD_TIMEOUT = 60; /* sec */
+    private static final String THREAD_NAME_PREFIX = "AlertDispatcher-";
+
+    private final int queueDepth;
+    private final ThreadPoolExecutor persistStage;
+    private final ThreadPoolExecutor notifyStage;
+    private final ConcurrentHashMap<String, Runnable> pendingMerged = new ConcurrentHashMap<>();
+    /* Keys of the merged events that are waiting for a free slot in the notify stage */
+    private final Set<String> deferredMerged = ConcurrentHashMap.newKeySet();
+    private final AtomicLong mergedCount = new AtomicLong();
+    private final AtomicLong deferredCount = new AtomicLong();
+
+    AlertDispatcher(int queueDepth)
+    {
+        if (queueDepth <= 0)
+            throw new IllegalArgumentException("Queue depth must be positive");
+
+        this.queueDepth = queueDepth;
+
+        persistStage = makeStage("persist", queueDepth);
+        notifyStage = makeStage("notify", queueDepth);
+    }
+
+    private static ThreadPoolExecutor makeStage(String name, int queueDepth)
+    {
+        ThreadPoolExecutor exec = new ThreadPoolExecutor(1, 1,
+                IDLE_THREAD_TIMEOUT, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueDepth),
+                (r) -> new Thread(r, THREAD_NAME_PREFIX + name),
+                waitForSlot);
+        exec.allowCoreThreadTimeOut(true);
+
+        return exec;
+    }
+
+    /*
+     * Database and file system work. Never dropped
+     */
+
+    void persist(@NonNull Runnable task)
+    {
+        persistStage.execute(wrap(task));
+    }
+
+    /*
+     * Listeners fan-out. Never dropped
+     */
+
+    void deliver(@NonNull Runnable task)
+    {
+        notifyStage.execute(wrapNotify(task));
+    }
+
+    /*
+     * Listeners fan-out for high-rate events. If the previous event with
+     * the same key is still waiting, it's replaced with the new one
+     */
+
+    void deliverMerged(@NonNull String key, @NonNull Runnable task)
+    {
+        if (pendingMerged.put(key, task) != null) {
+            mergedCount.incrementAndGet();
+            return;
+        }
+
+        /*
+         * Doesn't wait for a free slot, unlike ordered events.
+         * One of the queued tasks schedules it when it's done
+         */
+        if (notifyStage.getQueue().remainingCapacity() == 0) {
+            deferredMerged.add(key);
+            deferredCount.incrementAndGet();
+            /* The queue could be drained before the key was added */
+            scheduleDeferred();
+            return;
+        }
+
+        notifyStage.execute(makeMergedTask(key));
+    }
+
+    private Runnable makeMergedTask(String key)
+    {
+        return wrapNotify(() -> {
+            Runnable latest = pendingMerged.remove(key);
+            if (latest != null)
+                latest.run();
+        });
+    }
+
+    private void scheduleDeferred()
+    {
+        for (String key : deferredMerged) {
+            if (notifyStage.getQueue().remainingCapacity() == 0)
+                return;
+            if (deferredMerged.remove(key))
+                notifyStage.execute(makeMergedTask(key));
+        }
+    }
+
+    int getQueueDepth()
+    {
+        return queueDepth;
+    }
+
+    long getMergedCount()
+    {
+        return mergedCount.get();
+    }
+
+    long getDeferredCount()
+    {
+        return deferredCount.get();
+    }
+
+    int getPersistQueueSize()
+    {
+        return persistStage.getQueue().size();
+    }
+
+    int getNotifyQueueSize()
+    {
+        return notifyStage.getQueue().size();
+    }
+
+    private static Runnable wrap(Runnable task)
+    {
+        return () -> {
+            try {
+                task.run();
+
+            } catch (Exception e) {
+                Log.e(TAG, "Error handling alert: " + Log.getStackTraceString(e));
+            }
+        };
+    }
+
+    private Runnable wrapNotify(Runnable task)
+    {
+        Runnable wrapped = wrap(task);
+
+        return () -> {
+            wrapped.run();
+            if (!deferredMerged.isEmpty())
+                scheduleDeferred();
+        };
+    }
+
+    /*
+     * Back-pressure: the producer (alert thread) waits until the stage catches up.
+     * The stages themselves never wait for each other to avoid deadlock
+     */
+
+    private static final RejectedExecutionHandler waitForSlot = (r, exec) -> {
+        if (exec.isShutdown())
+            throw new RejectedExecutionException("Stage is shut down");
+
+        if (Thread.currentThread().getName().startsWith(THREAD_NAME_PREFIX)) {
+            r.run();
+            return;
+        }
+
+        try {
+            exec.getQueue().put(r);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+    };
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Torrents that are in the process of being added to the session, keyed by info-hash.
+ * Used from the alert thread, the restore workers and the caller threads,
+ * so every state transition is atomic:
+ *
+ *   (none) -> FETCHING -> (none)     magnet metadata fetch, cancelled or completed
+ *   (none) -> ADDING   -> ADDED      torrent is added by the user
+ *   FETCHING -> ADDING               fetched magnet is added by the user
+ *
+ * A torrent leaves the registry when it's added, because from that moment
+ * it's tracked as a running torrent.
+ */
+
+class InFlightTorrents
+{
+    enum State
+    {
+        FETCHING,
+        ADDING,
+        ADDED
+    }
+
+    private final ConcurrentHashMap<String, State> states = new ConcurrentHashMap<>();
+    /* Allows checking that nothing is being added without a scan */
+    private final AtomicInteger addingCount = new AtomicInteger();
+
+    @Nullable
+    State getState(@NonNull String hash)
+    {
+        return states.get(hash);
+    }
+
+    boolean isFetching(@NonNull String hash)
+    {
+        return states.get(hash) == State.FETCHING;
+    }
+
+    boolean isAdding(@NonNull String hash)
+    {
+        return states.get(hash) == State.ADDING;
+    }
+
+    boolean hasAdding()
+    {
+        return addingCount.get() > 0;
+    }
+
+    /*
+     * Returns false if the torrent is already fetching or adding
+     */
+
+    boolean startFetching(@NonNull String hash)
+    {
+        return states.putIfAbsent(hash, State.FETCHING) == null;
+    }
+
+    /*
+     * Returns true if the fetch was in progress and is now cancelled
+     */
+
+    boolean cancelFetching(@NonNull String hash)
+    {
+        return states.remove(hash, State.FETCHING);
+    }
+
+    /*
+     * Returns false if the torrent is already adding
+     */
+
+    boolean startAdding(@NonNull String hash)
+    {
+        boolean[] started = new boolean[1];
+        states.compute(hash, (key, state) -> {
+            if (state == State.ADDING)
+                return state;
+
+            started[0] = true;
+            addingCount.incrementAndGet();
+
+            return State.ADDING;
+        });
+
+        return started[0];
+    }
+
+    /*
+     * Adding failed before the torrent reached the session
+     */
+
+    boolean cancelAdding(@NonNull String hash)
+    {
+        return leaveAdding(hash) != null;
+    }
+
+    /*
+     * Must be called when the add_torrent alert is received.
+     * Returns ADDED if the torrent was added by the user, FETCHING if it's
+     * a magnet metadata fetch, or null if it isn't in the registry (e.g. restored torrent)
+     */
+
+    @Nullable
+    State onAdded(@NonNull String hash)
+    {
+        State state = leaveAdding(hash);
+        if (state != null)
+            return State.ADDED;
+
+        return (isFetching(hash) ? State.FETCHING : null);
+    }
+
+    void clear()
+    {
+        for (String hash : states.keySet())
+            leaveAdding(hash);
+        states.clear();
+    }
+
+    private State leaveAdding(String hash)
+    {
+        State[] prev = new State[1];
+        states.computeIfPresent(hash, (key, state) -> {
+            if (state != State.ADDING)
+                return state;
+
+            prev[0] = state;
+            addingCount.decrementAndGet();
+
+            return null;
+        });
+
+        return prev[0];
+    }
+}
@@ -0,0 +1,760 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.libtorrent4j.SessionManager;
+import org.libtorrent4j.TorrentHandle;
+import org.libtorrent4j.TorrentInfo;
+import org.libtorrent4j.TorrentStatus;
+import org.libtorrent4j.alerts.AlertType;
+import org.proninyaroslav.libretorrent.core.exception.DecodeException;
+import org.proninyaroslav.libretorrent.core.model.data.PeerInfo;
+import org.proninyaroslav.libretorrent.core.model.data.PieceBitfield;
+import org.proninyaroslav.libretorrent.core.model.data.Priority;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
+import org.proninyaroslav.libretorrent.core.model.data.TrackerInfo;
+import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
+import org.proninyaroslav.libretorrent.core.model.data.metainfo.TorrentMetaInfo;
+import org.proninyaroslav.libretorrent.core.model.stream.TorrentInputStream;
+import org.proninyaroslav.libretorrent.core.model.stream.TorrentStream;
+import org.proninyaroslav.libretorrent.core.storage.TorrentRepository;
+
+import java.util.List;
+import java.util.Set;
+
+import io.reactivex.Completable;
+
+/*
+ * Placeholder for a torrent restored from the previous session.
+ * Holds only the handle and creates the full TorrentDownloadImpl when
+ * the torrent is resumed, changed, queried for details or receives an alert
+ * that needs it (see isPromotingAlert()). Read-only state is taken from
+ * the handle status or the Torrent row, so paused torrents stay in this state,
+ * and memory depends on the number of active torrents rather than on the whole library.
+ */
+
+class LazyTorrentDownload implements TorrentDownload
+{
+    interface Factory
+    {
+        @NonNull
+        TorrentDownloadImpl create();
+    }
+
+    private final String id;
+    private final TorrentHandle th;
+    private final SessionManager sessionManager;
+    private final TorrentRepository repo;
+    private final Factory factory;
+    private volatile TorrentDownloadImpl impl;
+    private volatile boolean stopped;
+
+    LazyTorrentDownload(@NonNull String id,
+                        @NonNull TorrentHandle th,
+                        @NonNull SessionManager sessionManager,
+                        @NonNull TorrentRepository repo,
+                        @NonNull Factory factory)
+    {
+        this.id = id;
+        this.th = th;
+        this.sessionManager = sessionManager;
+        this.repo = repo;
+        this.factory = factory;
+    }
+
+    @NonNull
+    TorrentDownloadImpl promote()
+    {
+        TorrentDownloadImpl task = impl;
+        if (task != null)
+            return task;
+
+        synchronized (this) {
+            if (impl == null)
+                impl = factory.create();
+
+            return impl;
+        }
+    }
+
+    /*
+     * Returns null if the torrent isn't promoted yet
+     */
+
+    @Nullable
+    TorrentDownloadImpl peek()
+    {
+        return impl;
+    }
+
+    private boolean isHandlePaused()
+    {
+        return th.isValid() && TorrentStatusSnapshot.isPaused(th.status(true));
+    }
+
+    /*
+     * Alerts that the placeholder can't handle without the full torrent:
+     * resume, metadata, errors, file and storage operations
+     */
+
+    static boolean isPromotingAlert(@NonNull AlertType type)
+    {
+        switch (type) {
+            case STATE_CHANGED:
+            case TORRENT_PAUSED:
+            case TORRENT_CHECKED:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /*
+     * Status of the handle without creating the full torrent
+     */
+
+    private TorrentStatusSnapshot makeStatusSnapshot()
+    {
+        if (stopped)
+            return new TorrentStatusSnapshot(TorrentStateCode.STOPPED);
+
+        TorrentStatus status = (th.isValid() ? th.status(true) : null);
+        if (status == null)
+            return new TorrentStatusSnapshot(sessionManager.isRunning() ?
+                    TorrentStateCode.ERROR :
+                    TorrentStateCode.STOPPED);
+
+        return new TorrentStatusSnapshot(
+                status,
+                sessionManager.isRunning(),
+                sessionManager.isPaused()
+        );
+    }
+
+    @Override
+    public String getTorrentId()
+    {
+        return id;
+    }
+
+    @Override
+    public Completable requestStop()
+    {
+        TorrentDownloadImpl task = impl;
+        if (task != null)
+            return task.requestStop();
+
+        /* No critical work without the full torrent */
+        stopped = true;
+
+        return Completable.complete();
+    }
+
+    @Override
+    public void pause()
+    {
+        if (impl == null && isHandlePaused())
+            return;
+
+        promote().pause();
+    }
+
+    @Override
+    public void resume()
+    {
+        if (impl == null) {
+            /* Don't create the full torrent if it stays paused */
+            Torrent torrent = repo.getTorrentById(id);
+            if (torrent == null || torrent.manuallyPaused)
+                return;
+        }
+
+        promote().resume();
+    }
+
+    @Override
+    public void setMaxConnections(int connections)
+    {
+        TorrentDownloadImpl task = impl;
+        if (task != null)
+            task.setMaxConnections(connections);
+        else if (th.isValid() && !stopped)
+            th.swig().set_max_connections(connections);
+    }
+
+    @Override
+    public void setMaxUploads(int uploads)
+    {
+        TorrentDownloadImpl task = impl;
+        if (task != null)
+            task.setMaxUploads(uploads);
+        else if (th.isValid() && !stopped)
+            th.swig().set_max_uploads(uploads);
+    }
+
+    @Override
+    public String getInfoHash()
+    {
+        TorrentDownloadImpl task = impl;
+        if (task != null)
+            return task.getInfoHash();
+
+        return (!th.isValid() || stopped ? null : th.infoHash().toString());
+    }
+
+    @Override
+    public TorrentStatusSnapshot getStatusSnapshot()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getStatusSnapshot() : makeStatusSnapshot());
+    }
+
+    @Override
+    public Priority[] getFilePriorities()
+    {
+        TorrentDownloadImpl task = impl;
+        if (task != null)
+            return task.getFilePriorities();
+
+        if (!th.isValid() || stopped)
+            return new Priority[0];
+
+        return PriorityConverter.convert(th.filePriorities());
+    }
+
+    @Override
+    public boolean isValid()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.isValid() : th.isValid());
+    }
+
+    @Override
+    public boolean isStopped()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.isStopped() : stopped);
+    }
+
+    @Override
+    public boolean saveResumeData(boolean force)
+    {
+        if (impl == null) {
+            if (stopped)
+                return false;
+            if (!force) {
+                try {
+                    if (!th.isValid() || !th.needSaveResumeData())
+                        return false;
+                } catch (Exception e) {
+                    /* Let the full torrent handle it */
+                }
+            }
+        }
+
+        return promote().saveResumeData(force);
+    }
+
+    @Override
+    public boolean flushResumeData()
+    {
+        if (impl == null) {
+            if (stopped)
+                return false;
+            try {
+                if (!th.isValid() || !th.needSaveResumeData())
+                    return false;
+            } catch (Exception e) {
+                /* Let the full torrent handle it */
+            }
+        }
+
+        return promote().flushResumeData();
+    }
+
+    @Override
+    public boolean hasMissingFiles()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return task != null && task.hasMissingFiles();
+    }
+
+    @Override
+    public void pauseManually()
+    {
+        promote().pauseManually();
+    }
+
+    @Override
+    public void resumeManually()
+    {
+        promote().resumeManually();
+    }
+
+    @Override
+    public void setAutoManaged(boolean autoManaged)
+    {
+        /* Paused torrents ignore it */
+        if (impl == null && isHandlePaused())
+            return;
+
+        promote().setAutoManaged(autoManaged);
+    }
+
+    @Override
+    public boolean isAutoManaged()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.isAutoManaged() : makeStatusSnapshot().autoManaged);
+    }
+
+    @Override
+    public int getProgress()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getProgress() : makeStatusSnapshot().progress);
+    }
+
+    @Override
+    public void prioritizeFiles(@NonNull Priority[] priorities)
+    {
+        promote().prioritizeFiles(priorities);
+    }
+
+    @Override
+    public long getSize()
+    {
+        TorrentDownloadImpl task = impl;
+        if (task != null)
+            return task.getSize();
+
+        if (!th.isValid() || stopped)
+            return 0;
+        TorrentInfo ti = th.torrentFile();
+
+        return (ti != null ? ti.totalSize() : 0);
+    }
+
+    @Override
+    public long getDownloadSpeed()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getDownloadSpeed() : makeStatusSnapshot().downloadSpeed);
+    }
+
+    @Override
+    public long getUploadSpeed()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getUploadSpeed() : makeStatusSnapshot().uploadSpeed);
+    }
+
+    @Override
+    public void remove(boolean withFiles)
+    {
+        promote().remove(withFiles);
+    }
+
+    @Override
+    public long getActiveTime()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getActiveTime() : makeStatusSnapshot().activeTime);
+    }
+
+    @Override
+    public long getSeedingTime()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getSeedingTime() : makeStatusSnapshot().seedingTime);
+    }
+
+    @Override
+    public long getReceivedBytes()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getReceivedBytes() : makeStatusSnapshot().receivedBytes);
+    }
+
+    @Override
+    public long getTotalSentBytes()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getTotalSentBytes() : makeStatusSnapshot().totalSentBytes);
+    }
+
+    @Override
+    public int getConnectedPeers()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getConnectedPeers() : makeStatusSnapshot().connectedPeers);
+    }
+
+    @Override
+    public int getConnectedSeeds()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getConnectedSeeds() : makeStatusSnapshot().connectedSeeds);
+    }
+
+    @Override
+    public int getConnectedLeechers()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getConnectedLeechers() : makeStatusSnapshot().connectedLeechers);
+    }
+
+    @Override
+    public int getTotalPeers()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getTotalPeers() : makeStatusSnapshot().totalPeers);
+    }
+
+    @Override
+    public int getTotalSeeds()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getTotalSeeds() : makeStatusSnapshot().totalSeeds);
+    }
+
+    @Override
+    public int getTotalLeechers()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getTotalLeechers() : makeStatusSnapshot().totalLeechers);
+    }
+
+    @Override
+    public void requestTrackerAnnounce()
+    {
+        promote().requestTrackerAnnounce();
+    }
+
+    @Override
+    public Set<String> getTrackersUrl()
+    {
+        return promote().getTrackersUrl();
+    }
+
+    @Override
+    public List<TrackerInfo> getTrackerInfoList()
+    {
+        return promote().getTrackerInfoList();
+    }
+
+    @Override
+    public List<PeerInfo> getPeerInfoList()
+    {
+        return promote().getPeerInfoList();
+    }
+
+    @Override
+    public long getTotalWanted()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getTotalWanted() : makeStatusSnapshot().totalWanted);
+    }
+
+    @Override
+    public void replaceTrackers(@NonNull Set<String> trackers)
+    {
+        promote().replaceTrackers(trackers);
+    }
+
+    @Override
+    public void addTrackers(@NonNull Set<String> trackers)
+    {
+        promote().addTrackers(trackers);
+    }
+
+    @Override
+    public PieceBitfield pieces()
+    {
+        return promote().pieces();
+    }
+
+    @Override
+    public String makeMagnet(boolean includePriorities)
+    {
+        return promote().makeMagnet(includePriorities);
+    }
+
+    @Override
+    public void setSequentialDownload(boolean sequential)
+    {
+        promote().setSequentialDownload(sequential);
+    }
+
+    @Override
+    public void setFirstLastPiecePriority(boolean enabled)
+    {
+        promote().setFirstLastPiecePriority(enabled);
+    }
+
+    @Override
+    public boolean isFirstLastPiecePriority()
+    {
+        TorrentDownloadImpl task = impl;
+        if (task != null)
+            return task.isFirstLastPiecePriority();
+
+        Torrent torrent = repo.getTorrentById(id);
+
+        return torrent != null && torrent.firstLastPiecePriority;
+    }
+
+    @Override
+    public void setTorrentName(@NonNull String name)
+    {
+        promote().setTorrentName(name);
+    }
+
+    @Override
+    public long getETA()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getETA() : makeStatusSnapshot().eta);
+    }
+
+    @Override
+    public TorrentMetaInfo getTorrentMetaInfo() throws DecodeException
+    {
+        return promote().getTorrentMetaInfo();
+    }
+
+    @Override
+    public String getTorrentName()
+    {
+        TorrentDownloadImpl task = impl;
+        if (task != null)
+            return task.getTorrentName();
+
+        Torrent torrent = repo.getTorrentById(id);
+
+        return (torrent == null ? null : torrent.name);
+    }
+
+    @Override
+    public void setDownloadPath(@NonNull Uri path)
+    {
+        promote().setDownloadPath(path);
+    }
+
+    @Override
+    public long[] getFilesReceivedBytes()
+    {
+        return promote().getFilesReceivedBytes();
+    }
+
+    @Override
+    public void forceRecheck()
+    {
+        promote().forceRecheck();
+    }
+
+    @Override
+    public int getNumDownloadedPieces()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getNumDownloadedPieces() : makeStatusSnapshot().numDownloadedPieces);
+    }
+
+    @Override
+    public double getShareRatio()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getShareRatio() : makeStatusSnapshot().shareRatio);
+    }
+
+    @Override
+    public Uri getPartsFile()
+    {
+        return promote().getPartsFile();
+    }
+
+    @Override
+    public void setDownloadSpeedLimit(int limit)
+    {
+        promote().setDownloadSpeedLimit(limit);
+    }
+
+    @Override
+    public int getDownloadSpeedLimit()
+    {
+        return promote().getDownloadSpeedLimit();
+    }
+
+    @Override
+    public void setUploadSpeedLimit(int limit)
+    {
+        promote().setUploadSpeedLimit(limit);
+    }
+
+    @Override
+    public int getUploadSpeedLimit()
+    {
+        return promote().getUploadSpeedLimit();
+    }
+
+    @Override
+    public TorrentStateCode getStateCode()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.getStateCode() : makeStatusSnapshot().stateCode);
+    }
+
+    @Override
+    public boolean isPaused()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.isPaused() : makeStatusSnapshot().paused);
+    }
+
+    @Override
+    public boolean isSeeding()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.isSeeding() : makeStatusSnapshot().seeding);
+    }
+
+    @Override
+    public boolean isFinished()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.isFinished() : makeStatusSnapshot().finished);
+    }
+
+    @Override
+    public boolean isDownloading()
+    {
+        return getDownloadSpeed() > 0;
+    }
+
+    @Override
+    public boolean isSequentialDownload()
+    {
+        TorrentDownloadImpl task = impl;
+
+        return (task != null ? task.isSequentialDownload() : makeStatusSnapshot().sequentialDownload);
+    }
+
+    @Override
+    public int getMaxConnections()
+    {
+        return promote().getMaxConnections();
+    }
+
+    @Override
+    public int getMaxUploads()
+    {
+        return promote().getMaxUploads();
+    }
+
+    @Override
+    public double getAvailability(int[] piecesAvailability)
+    {
+        return promote().getAvailability(piecesAvailability);
+    }
+
+    @Override
+    public double[] getFilesAvailability(int[] piecesAvailability)
+    {
+        return promote().getFilesAvailability(piecesAvailability);
+    }
+
+    @Override
+    public int[] getPiecesAvailability()
+    {
+        return promote().getPiecesAvailability();
+    }
+
+    @Override
+    public boolean havePiece(int pieceIndex)
+    {
+        return promote().havePiece(pieceIndex);
+    }
+
+    @Override
+    public void readPiece(int pieceIndex)
+    {
+        promote().readPiece(pieceIndex);
+    }
+
+    @Override
+    public void setInterestedPieces(@NonNull TorrentInputStream reader,
+                                    @NonNull TorrentStream stream,
+                                    int startPiece,
+                                    int numPieces)
+    {
+        promote().setInterestedPieces(reader, stream, startPiece, numPieces);
+    }
+
+    @Override
+    public void removeInterestedPieces(@NonNull TorrentInputStream reader)
+    {
+        TorrentDownloadImpl task = impl;
+        if (task != null)
+            task.removeInterestedPieces(reader);
+    }
+
+    @Override
+    public TorrentStream getStream(int fileIndex)
+    {
+        return promote().getStream(fileIndex);
+    }
+
+    @Override
+    public byte[] getBencode()
+    {
+        return promote().getBencode();
+    }
+}
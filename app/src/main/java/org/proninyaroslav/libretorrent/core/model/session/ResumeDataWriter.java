@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.proninyaroslav.libretorrent.core.model.data.entity.FastResume;
+import org.proninyaroslav.libretorrent.core.storage.TorrentRepository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Collects the resume data of all torrents and writes it to the database
+ * in one transaction, instead of a transaction per torrent.
+ * If the data of the torrent is saved again before the flush, only the latest
+ * data is written. The flush happens when the number or size of the pending
+ * entries reaches the limit, or after the flush interval.
+ */
+
+class ResumeDataWriter
+{
+    private static final String TAG = ResumeDataWriter.class.getSimpleName();
+
+    private static final long FLUSH_INTERVAL = 1000; /* ms */
+    private static final int FLUSH_MAX_ENTRIES = 50;
+    private static final long FLUSH_MAX_BYTES = 4 * 1024 * 1024;
+    private static final long IDLE_THREAD_TIMEOUT = 60; /* sec */
+
+    public static class Stats
+    {
+        public final int queueDepth;
+        public final long flushes;
+        public final long written;
+        public final long coalesced;
+        public final long bytesWritten;
+        public final long lastFlushLatency; /* ms */
+        public final long maxFlushLatency; /* ms */
+
+        public Stats(int queueDepth, long flushes, long written, long coalesced,
+                     long bytesWritten, long lastFlushLatency, long maxFlushLatency)
+        {
+            this.queueDepth = queueDepth;
+            this.flushes = flushes;
+            this.written = written;
+            this.coalesced = coalesced;
+            this.bytesWritten = bytesWritten;
+            this.lastFlushLatency = lastFlushLatency;
+            this.maxFlushLatency = maxFlushLatency;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return "Stats{" +
+                    "queueDepth=" + queueDepth +
+                    ", flushes=" + flushes +
+                    ", written=" + written +
+                    ", coalesced=" + coalesced +
+                    ", bytesWritten=" + bytesWritten +
+                    ", lastFlushLatency=" + lastFlushLatency +
+                    ", maxFlushLatency=" + maxFlushLatency +
+                    '}';
+        }
+    }
+
+    private static final class Entry
+    {
+        FastResume data;
+        /* Callbacks of all coalesced writes */
+        final ArrayList<Runnable> onWritten = new ArrayList<>(1);
+
+        Entry(FastResume data)
+        {
+            this.data = data;
+        }
+    }
+
+    private final TorrentRepository repo;
+    private final ScheduledThreadPoolExecutor exec;
+    private final Object flushLock = new Object();
+    /* Guarded by this */
+    private LinkedHashMap<String, Entry> pending = new LinkedHashMap<>();
+    private long pendingBytes;
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong lastFlushLatency = new AtomicLong();
+    private final AtomicLong maxFlushLatency = new AtomicLong();
+
+    ResumeDataWriter(@NonNull TorrentRepository repo)
+    {
+        this.repo = repo;
+        exec = new ScheduledThreadPoolExecutor(1,
+                (r) -> new Thread(r, TAG));
+        exec.setKeepAliveTime(IDLE_THREAD_TIMEOUT, TimeUnit.SECONDS);
+        exec.allowCoreThreadTimeOut(true);
+    }
+
+    /*
+     * Queues the resume data. The callback is called after
+     * the data is written (or the write failed)
+     */
+
+    void write(@NonNull FastResume data, @Nullable Runnable onWritten)
+    {
+        boolean flushNow;
+        synchronized (this) {
+            Entry entry = pending.get(data.torrentId);
+            if (entry == null) {
+                entry = new Entry(data);
+                pending.put(data.torrentId, entry);
+            } else {
+                pendingBytes -= entry.data.data.length;
+                entry.data = data;
+                coalesced.incrementAndGet();
+            }
+            pendingBytes += data.data.length;
+            if (onWritten != null)
+                entry.onWritten.add(onWritten);
+
+            flushNow = pending.size() >= FLUSH_MAX_ENTRIES || pendingBytes >= FLUSH_MAX_BYTES;
+            if (flushNow) {
+                cancelScheduledFlush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = schedule(this::flush, FLUSH_INTERVAL);
+                /* Can't schedule, write immediately */
+                flushNow = scheduledFlush == null;
+            }
+        }
+
+        if (flushNow && schedule(this::flush, 0) == null)
+            flush();
+    }
+
+    /*
+     * Drops the pending data of the removed torrent
+     */
+
+    void discard(@NonNull String torrentId)
+    {
+        Entry entry;
+        synchronized (this) {
+            entry = pending.remove(torrentId);
+            if (entry == null)
+                return;
+            pendingBytes -= entry.data.data.length;
+        }
+        runCallbacks(entry);
+    }
+
+    /*
+     * Writes all pending data on the calling thread
+     */
+
+    void flush()
+    {
+        LinkedHashMap<String, Entry> batch;
+        /* Batches are written in order, so the older data never overwrites the newer one */
+        synchronized (flushLock) {
+            synchronized (this) {
+                cancelScheduledFlush();
+                if (pending.isEmpty())
+                    return;
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                pendingBytes = 0;
+            }
+            writeBatch(batch);
+        }
+
+        for (Entry entry : batch.values())
+            runCallbacks(entry);
+    }
+
+    private void writeBatch(LinkedHashMap<String, Entry> batch)
+    {
+        ArrayList<FastResume> list = new ArrayList<>(batch.size());
+        long bytes = 0;
+        for (Entry entry : batch.values()) {
+            list.add(entry.data);
+            bytes += entry.data.data.length;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        try {
+            repo.addFastResumes(list);
+
+        } catch (Exception e) {
+            /*
+             * The whole transaction is rolled back if one of the entries
+             * is failed (e.g. torrent has been deleted), so write them separately
+             */
+            Log.w(TAG, "Batch write failed, fallback to single writes: " + e);
+            bytes = writeSeparately(list);
+        }
+        long latency = SystemClock.elapsedRealtime() - startTime;
+
+        flushes.incrementAndGet();
+        written.addAndGet(list.size());
+        bytesWritten.addAndGet(bytes);
+        lastFlushLatency.set(latency);
+        maxFlushLatency.accumulateAndGet(latency, Math::max);
+    }
+
+    Stats getStats()
+    {
+        int queueDepth;
+        synchronized (this) {
+            queueDepth = pending.size();
+        }
+
+        return new Stats(queueDepth, flushes.get(), written.get(), coalesced.get(),
+                bytesWritten.get(), lastFlushLatency.get(), maxFlushLatency.get());
+    }
+
+    private long writeSeparately(List<FastResume> list)
+    {
+        long bytes = 0;
+        for (FastResume data : list) {
+            try {
+                repo.addFastResume(data);
+                bytes += data.data.length;
+
+            } catch (Exception e) {
+                Log.e(TAG, "Error writing resume data of " + data.torrentId + ": " +
+                        Log.getStackTraceString(e));
+            }
+        }
+
+        return bytes;
+    }
+
+    private void runCallbacks(Entry entry)
+    {
+        for (Runnable r : entry.onWritten) {
+            try {
+                r.run();
+
+            } catch (Exception e) {
+                Log.e(TAG, Log.getStackTraceString(e));
+            }
+        }
+    }
+
+    private ScheduledFuture<?> schedule(Runnable task, long delay)
+    {
+        try {
+            return exec.schedule(task, delay, TimeUnit.MILLISECONDS);
+
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private void cancelScheduledFlush()
+    {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+}
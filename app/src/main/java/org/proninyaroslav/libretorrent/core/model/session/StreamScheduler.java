@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import java.util.BitSet;
+
+/*
+ * Schedules the download of the pieces ahead of the stream reading position.
+ * The window covers the time of the media ahead at the observed reading
+ * rate, and the piece deadlines are staggered by the time when the
+ * pieces are expected to be read. After a seek the pieces outside of the
+ * new window are returned to the normal priority.
+ */
+
+class StreamScheduler
+{
+    /* Window until the reading rate is known */
+    static final int DEFAULT_WINDOW = 5;
+    static final int MIN_WINDOW = 2;
+    static final int MAX_WINDOW = 64;
+    /* Time of the media that should be downloaded ahead */
+    static final long WINDOW_TIME = 30000; /* ms */
+    /* Deadline of the piece at the reading position */
+    static final int FIRST_PIECE_DEADLINE = 1000; /* ms */
+    /* Deadline step until the reading rate is known */
+    static final int DEFAULT_PIECE_DEADLINE_STEP = 1000; /* ms */
+    static final int MIN_PIECE_DEADLINE_STEP = 100; /* ms */
+
+    interface Pieces
+    {
+        boolean havePiece(int piece);
+
+        /* Sets the top priority and the deadline, ms from now */
+        void setDeadline(int piece, int deadline);
+
+        /* Removes the deadline and restores the priority of the file */
+        void resetDeadline(int piece);
+    }
+
+    private final int firstPiece;
+    private final int lastPiece;
+    private final int pieceLength;
+    private final Pieces pieces;
+    /* Pieces with the deadline set by this scheduler */
+    private final BitSet scheduled = new BitSet();
+    private int readPiece = -1;
+    private long readPieceTime;
+    private int window = DEFAULT_WINDOW;
+    /* Bytes per second, or -1 if unknown */
+    private double readRate = -1;
+
+    StreamScheduler(int firstPiece, int lastPiece, int pieceLength, Pieces pieces)
+    {
+        this.firstPiece = firstPiece;
+        this.lastPiece = lastPiece;
+        this.pieceLength = pieceLength;
+        this.pieces = pieces;
+    }
+
+    /*
+     * Called on every read of the stream, but the pieces
+     * are scheduled only when the reading position moves
+     */
+
+    synchronized void onRead(int startPiece, int numPieces, long now)
+    {
+        if (startPiece < firstPiece || startPiece > lastPiece || numPieces < 0)
+            return;
+        if (startPiece == readPiece && numPieces <= window)
+            return;
+
+        boolean seek = readPiece < 0 || startPiece < readPiece || startPiece >= readPiece + window;
+        if (seek) {
+            /* The previous rate is no longer relevant */
+            readRate = -1;
+        } else if (startPiece > readPiece) {
+            /*
+             * The pieces behind are already read, or skipped over,
+             * in which case they no longer need the deadline
+             */
+            for (int p = scheduled.nextSetBit(readPiece); p >= 0 && p < startPiece; p = scheduled.nextSetBit(p + 1)) {
+                scheduled.clear(p);
+                if (!pieces.havePiece(p))
+                    pieces.resetDeadline(p);
+            }
+            long elapsed = Math.max(now - readPieceTime, 1);
+            double rate = (double)(startPiece - readPiece) * pieceLength * 1000 / elapsed;
+            readRate = (readRate < 0 ? rate : readRate * 0.75 + rate * 0.25);
+        }
+        readPiece = startPiece;
+        readPieceTime = now;
+        window = Math.max(calcWindow(), numPieces);
+
+        int windowEnd = Math.min(startPiece + window - 1, lastPiece);
+        if (seek)
+            resetOutside(startPiece, windowEnd);
+
+        int step = deadlineStep();
+        for (int p = startPiece; p <= windowEnd; p++) {
+            if (scheduled.get(p))
+                continue;
+            if (pieces.havePiece(p))
+                continue;
+            pieces.setDeadline(p, FIRST_PIECE_DEADLINE + (p - startPiece) * step);
+            scheduled.set(p);
+        }
+    }
+
+    /*
+     * Called when the reader is closed
+     */
+
+    synchronized void release()
+    {
+        for (int p = scheduled.nextSetBit(0); p >= 0; p = scheduled.nextSetBit(p + 1)) {
+            if (!pieces.havePiece(p))
+                pieces.resetDeadline(p);
+        }
+        scheduled.clear();
+        readPiece = -1;
+    }
+
+    synchronized int getWindow()
+    {
+        return window;
+    }
+
+    synchronized double getReadRate()
+    {
+        return readRate;
+    }
+
+    private int calcWindow()
+    {
+        if (readRate < 0)
+            return DEFAULT_WINDOW;
+
+        long windowBytes = (long)(readRate * WINDOW_TIME / 1000);
+        int window = (int)Math.min(MAX_WINDOW, (windowBytes + pieceLength - 1) / pieceLength);
+
+        return Math.max(MIN_WINDOW, window);
+    }
+
+    private int deadlineStep()
+    {
+        if (readRate <= 0)
+            return DEFAULT_PIECE_DEADLINE_STEP;
+
+        long step = (long)(pieceLength * 1000 / readRate);
+
+        return (int)Math.max(MIN_PIECE_DEADLINE_STEP, Math.min(step, WINDOW_TIME));
+    }
+
+    private void resetOutside(int start, int end)
+    {
+        for (int p = scheduled.nextSetBit(0); p >= 0; p = scheduled.nextSetBit(p + 1)) {
+            if (p >= start && p <= end)
+                continue;
+            scheduled.clear(p);
+            if (!pieces.havePiece(p))
+                pieces.resetDeadline(p);
+        }
+    }
+}
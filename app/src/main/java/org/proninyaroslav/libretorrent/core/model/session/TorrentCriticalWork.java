@@ -19,14 +19,21 @@
 
 package org.proninyaroslav.libretorrent.core.model.session;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.reactivex.Observable;
 import io.reactivex.subjects.BehaviorSubject;
 
+/*
+ * Tracks the work that must be completed before the torrent is stopped.
+ * The state is lock-free; change events are emitted on the executor
+ * shared by all torrents of the session, instead of a thread pool per torrent
+ */
+
 class TorrentCriticalWork
 {
     public enum Type
@@ -54,12 +61,17 @@ class TorrentCriticalWork
         }
     }
 
-    private ExecutorService exec = Executors.newFixedThreadPool(2);
+    private final Executor exec;
     private AtomicBoolean moving = new AtomicBoolean();
     private AtomicInteger saveResume = new AtomicInteger();
     private BehaviorSubject<State> stateChangedEvent =
             BehaviorSubject.createDefault(new State(false, false, System.currentTimeMillis()));
 
+    public TorrentCriticalWork(@NonNull Executor exec)
+    {
+        this.exec = exec;
+    }
+
     public boolean isMoving()
     {
         return moving.get();
@@ -85,6 +97,15 @@ class TorrentCriticalWork
         emitChangedEvent();
     }
 
+    /*
+     * Current state. The emitted state may be behind, because it's delivered asynchronously
+     */
+
+    public boolean isDuringChange()
+    {
+        return moving.get() || saveResume.get() > 0;
+    }
+
     public Observable<State> observeStateChanging()
     {
         return stateChangedEvent;
@@ -92,7 +113,7 @@ class TorrentCriticalWork
 
     private void emitChangedEvent()
     {
-        exec.submit(() -> stateChangedEvent.onNext(
+        exec.execute(() -> stateChangedEvent.onNext(
                 new State(moving.get(), saveResume.get() > 0, System.currentTimeMillis())));
     }
 }
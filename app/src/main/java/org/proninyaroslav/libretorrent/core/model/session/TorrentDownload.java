@@ -25,10 +25,12 @@ import androidx.annotation.NonNull;
 
 import org.proninyaroslav.libretorrent.core.exception.DecodeException;
 import org.proninyaroslav.libretorrent.core.model.data.PeerInfo;
+import org.proninyaroslav.libretorrent.core.model.data.PieceBitfield;
 import org.proninyaroslav.libretorrent.core.model.data.Priority;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
 import org.proninyaroslav.libretorrent.core.model.data.TrackerInfo;
 import org.proninyaroslav.libretorrent.core.model.data.metainfo.TorrentMetaInfo;
+import org.proninyaroslav.libretorrent.core.model.stream.TorrentInputStream;
 import org.proninyaroslav.libretorrent.core.model.stream.TorrentStream;
 
 import java.util.List;
@@ -109,7 +111,7 @@ public interface TorrentDownload
 
     void addTrackers(@NonNull Set<String> trackers);
 
-    boolean[] pieces();
+    PieceBitfield pieces();
 
     String makeMagnet(boolean includePriorities);
 
@@ -151,6 +153,13 @@ public interface TorrentDownload
 
     TorrentStateCode getStateCode();
 
+    /*
+     * Returns all status values taken from a single native status request.
+     * Prefer it over the separate getters if several values are needed at once
+     */
+
+    TorrentStatusSnapshot getStatusSnapshot();
+
     boolean isPaused();
 
     boolean isSeeding();
@@ -179,7 +188,21 @@ public interface TorrentDownload
 
     void readPiece(int pieceIndex);
 
-    void setInterestedPieces(@NonNull TorrentStream stream, int startPiece, int numPieces);
+    /*
+     * Schedules the pieces ahead of the reading position. Each reader
+     * of the stream has its own reading position and rate
+     */
+
+    void setInterestedPieces(@NonNull TorrentInputStream reader,
+                             @NonNull TorrentStream stream,
+                             int startPiece,
+                             int numPieces);
+
+    /*
+     * Returns the pieces scheduled for the closed reader to the normal priority
+     */
+
+    void removeInterestedPieces(@NonNull TorrentInputStream reader);
 
     TorrentStream getStream(int fileIndex);
 
@@ -191,7 +214,19 @@ public interface TorrentDownload
 
     byte[] getBencode();
 
-    void saveResumeData(boolean force);
+    /*
+     * Requests resume data. If not forced, it's skipped if nothing has changed
+     * since the last save. Returns false if skipped
+     */
+
+    boolean saveResumeData(boolean force);
+
+    /*
+     * Requests resume data if anything has changed since the last save,
+     * regardless of the rate limit (e.g. at shutdown). Returns false if unchanged
+     */
+
+    boolean flushResumeData();
 
     boolean hasMissingFiles();
 }
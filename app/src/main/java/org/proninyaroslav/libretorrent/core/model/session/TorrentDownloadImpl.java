@@ -22,6 +22,7 @@ package org.proninyaroslav.libretorrent.core.model.session;
 import static org.proninyaroslav.libretorrent.core.model.data.TorrentInfo.MAX_ETA;
 
 import android.net.Uri;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -54,8 +55,10 @@ import org.libtorrent4j.alerts.SaveResumeDataAlert;
 import org.libtorrent4j.alerts.StateChangedAlert;
 import org.libtorrent4j.alerts.TorrentAlert;
 import org.libtorrent4j.alerts.TorrentErrorAlert;
+import org.libtorrent4j.swig.add_torrent_params;
 import org.libtorrent4j.swig.announce_entry;
 import org.libtorrent4j.swig.byte_vector;
+import org.libtorrent4j.swig.int_vector;
 import org.libtorrent4j.swig.libtorrent;
 import org.libtorrent4j.swig.libtorrent_errors;
 import org.libtorrent4j.swig.peer_info_vector;
@@ -65,6 +68,7 @@ import org.proninyaroslav.libretorrent.core.exception.FreeSpaceException;
 import org.proninyaroslav.libretorrent.core.exception.UnknownUriException;
 import org.proninyaroslav.libretorrent.core.model.TorrentEngineListener;
 import org.proninyaroslav.libretorrent.core.model.data.PeerInfo;
+import org.proninyaroslav.libretorrent.core.model.data.PieceBitfield;
 import org.proninyaroslav.libretorrent.core.model.data.Priority;
 import org.proninyaroslav.libretorrent.core.model.data.ReadPieceInfo;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
@@ -72,6 +76,7 @@ import org.proninyaroslav.libretorrent.core.model.data.TrackerInfo;
 import org.proninyaroslav.libretorrent.core.model.data.entity.FastResume;
 import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
 import org.proninyaroslav.libretorrent.core.model.data.metainfo.TorrentMetaInfo;
+import org.proninyaroslav.libretorrent.core.model.stream.TorrentInputStream;
 import org.proninyaroslav.libretorrent.core.model.stream.TorrentStream;
 import org.proninyaroslav.libretorrent.core.storage.TorrentRepository;
 import org.proninyaroslav.libretorrent.core.system.FileSystemFacade;
@@ -79,13 +84,18 @@ import org.proninyaroslav.libretorrent.core.system.FileSystemFacade;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -102,12 +112,11 @@ class TorrentDownloadImpl implements TorrentDownload
 
     private static final long SAVE_RESUME_SYNC_TIME = 10000; /* ms */
     private static final long CRITICAL_WORK_WAIT_TIMEOUT = 30000; /* ms */
-    private static final double MAX_RATIO = 9999.;
-    /* For streaming */
-    private final static int PRELOAD_PIECES_COUNT = 5;
-    private static final int DEFAULT_PIECE_DEADLINE = 1000; /* ms */
+    /* Restore order doesn't need more, so active torrents don't update the row on each save */
+    private static final long LAST_ACTIVE_TIME_PRECISION = 60 * 60 * 1000; /* ms */
 
-    private static final int[] INNER_LISTENER_TYPES = new int[] {
+    /* Alerts routed to the task by the session, see onAlert() */
+    static final int[] ALERT_TYPES = new int[] {
             AlertType.STATE_CHANGED.swig(),
             AlertType.TORRENT_FINISHED.swig(),
             AlertType.TORRENT_REMOVED.swig(),
@@ -131,12 +140,24 @@ class TorrentDownloadImpl implements TorrentDownload
     private String id;
     private TorrentRepository repo;
     private FileSystemFacade fs;
+    private AlertDispatcher dispatcher;
+    private ResumeDataWriter resumeWriter;
     private Queue<TorrentEngineListener> listeners;
-    private InnerListener listener;
     private Uri partsFile;
     private long lastSaveResumeTime;
+    /* Persistent state has changed (e.g. a piece is downloaded) since the last save */
+    private final AtomicBoolean resumeDataDirty = new AtomicBoolean();
+    /* Each reader of the streams has its own scheduler, removed when the reader is closed */
+    private final ConcurrentHashMap<TorrentInputStream, StreamScheduler> streamSchedulers = new ConcurrentHashMap<>();
+    /*
+     * Number of the stream schedulers that have set the deadline of the piece,
+     * so that a reader doesn't reset the pieces needed by another reader. Guarded by itself
+     */
+    private final HashMap<Integer, Integer> streamDeadlines = new HashMap<>();
+    /* The last exported pieces, only the missing pieces are queried next time */
+    private volatile PieceBitfield lastPieces;
     private AtomicReference<String> name;
-    private TorrentCriticalWork criticalWork = new TorrentCriticalWork();
+    private TorrentCriticalWork criticalWork;
     private boolean autoManaged;
     private boolean stopRequested = false;
     private boolean stopped = false;
@@ -149,6 +170,9 @@ class TorrentDownloadImpl implements TorrentDownload
                                TorrentRepository repo,
                                FileSystemFacade fs,
                                final Queue<TorrentEngineListener> listeners,
+                               AlertDispatcher dispatcher,
+                               Executor criticalWorkExec,
+                               ResumeDataWriter resumeWriter,
                                String id,
                                TorrentHandle handle,
                                boolean autoManaged)
@@ -159,11 +183,12 @@ class TorrentDownloadImpl implements TorrentDownload
         this.sessionManager = sessionManager;
         this.autoManaged = autoManaged;
         this.listeners = listeners;
+        this.dispatcher = dispatcher;
+        this.criticalWork = new TorrentCriticalWork(criticalWorkExec);
+        this.resumeWriter = resumeWriter;
         this.th = handle;
         this.name = new AtomicReference<>(handle.getName());
         partsFile = getPartsFile();
-        listener = new InnerListener();
-        sessionManager.addListener(listener);
 
         var torrent = repo.getTorrentById(id);
         if (torrent != null) {
@@ -185,6 +210,16 @@ class TorrentDownloadImpl implements TorrentDownload
     }
 
     private void notifyListeners(@NonNull CallListener l)
+    {
+        dispatcher.deliver(() -> notifyListenersSync(l));
+    }
+
+    /*
+     * For events that refer to the alert memory (e.g. read piece buffer),
+     * which is valid only on the alert thread
+     */
+
+    private void notifyListenersSync(@NonNull CallListener l)
     {
         for (TorrentEngineListener listener : listeners) {
             if (listener != null)
@@ -202,82 +237,83 @@ class TorrentDownloadImpl implements TorrentDownload
         return !operationNotAllowed() && ti != null && ti.numFiles() > 0;
     }
 
-    private final class InnerListener implements AlertListener
-    {
-        @Override
-        public int[] types()
-        {
-            return INNER_LISTENER_TYPES;
-        }
+    /*
+     * Called by the session on the alert thread for the alerts of this torrent
+     */
 
-        @Override
-        public void alert(Alert<?> alert)
-        {
-            if (!(alert instanceof TorrentAlert<?>))
-                return;
+    void onAlert(@NonNull Alert<?> alert)
+    {
+        if (stopped)
+            return;
 
-            if (!((TorrentAlert<?>) alert).handle().swig().eq(th.swig()))
-                return;
+        AlertType type = alert.type();
+        switch (type) {
+            case STATE_CHANGED:
+                StateChangedAlert a = ((StateChangedAlert)alert);
+                notifyListeners((listener) ->
+                        listener.onTorrentStateChanged(id,
+                                TorrentStatusSnapshot.stateToStateCode(a.getPrevState()),
+                                TorrentStatusSnapshot.stateToStateCode(a.getState())));
+                break;
+            case TORRENT_FINISHED:
+                handleTorrentFinished();
+                break;
+            case TORRENT_REMOVED:
+                torrentRemoved();
+                break;
+            case TORRENT_PAUSED:
+                notifyListeners((listener) ->
+                        listener.onTorrentPaused(id));
+                break;
+            case TORRENT_RESUMED:
+                dispatcher.persist(this::resetTorrentError);
 
-            AlertType type = alert.type();
-            switch (type) {
-                case STATE_CHANGED:
-                    StateChangedAlert a = ((StateChangedAlert)alert);
-                    notifyListeners((listener) ->
-                            listener.onTorrentStateChanged(id,
-                                    stateToStateCode(a.getPrevState()),
-                                    stateToStateCode(a.getState())));
-                    break;
-                case TORRENT_FINISHED:
-                    handleTorrentFinished();
-                    break;
-                case TORRENT_REMOVED:
-                    torrentRemoved();
-                    break;
-                case TORRENT_PAUSED:
-                    notifyListeners((listener) ->
-                            listener.onTorrentPaused(id));
-                    break;
-                case TORRENT_RESUMED:
-                    resetTorrentError();
-
-                    notifyListeners((listener) ->
-                            listener.onTorrentResumed(id));
-                    break;
-                case SAVE_RESUME_DATA:
-                    serializeResumeData((SaveResumeDataAlert)alert);
-                    break;
-                case STORAGE_MOVED:
-                    onStorageMoved(true);
-                    break;
-                case STORAGE_MOVED_FAILED:
-                    onStorageMoved(false);
-                    break;
-                case PIECE_FINISHED:
-                    saveResumeData(false);
-                    int piece = ((PieceFinishedAlert)alert).pieceIndex();
-                    notifyListeners((listener) ->
-                            listener.onPieceFinished(id, piece));
-                    break;
-                case METADATA_RECEIVED:
-                    handleMetadata((MetadataReceivedAlert)alert);
+                notifyListeners((listener) ->
+                        listener.onTorrentResumed(id));
+                break;
+            case SAVE_RESUME_DATA:
+                serializeResumeData((SaveResumeDataAlert)alert);
+                break;
+            case STORAGE_MOVED:
+                onStorageMoved(true);
+                break;
+            case STORAGE_MOVED_FAILED:
+                onStorageMoved(false);
+                break;
+            case PIECE_FINISHED:
+                resumeDataDirty.set(true);
+                saveResumeData(false);
+                int piece = ((PieceFinishedAlert)alert).pieceIndex();
+                /* The deadline of the downloaded piece no longer matters */
+                synchronized (streamDeadlines) {
+                    streamDeadlines.remove(piece);
+                }
+                /* Listeners use it as a wake-up signal, so only the latest piece is needed */
+                dispatcher.deliverMerged("pieceFinished:" + id, () ->
+                        notifyListenersSync((listener) ->
+                                listener.onPieceFinished(id, piece)));
+                break;
+            case METADATA_RECEIVED:
+                TorrentHandle handle = ((MetadataReceivedAlert)alert).handle();
+                dispatcher.persist(() -> {
+                    handleMetadata(handle);
                     // If first/last piece priority was specified when adding this torrent,
                     // we should apply it now that we have metadata.
                     if (hasFirstLastPiecePriority) {
                         applyFirstLastPiecePriority(true);
                     }
                     saveResumeData(true);
-                    break;
-                case READ_PIECE:
-                    handleReadPiece((ReadPieceAlert)alert);
-                    break;
-                case TORRENT_CHECKED:
-                    handleTorrentChecked();
-                    break;
-                default:
-                    checkError(alert);
-                    break;
-            }
+                });
+                break;
+            case READ_PIECE:
+                handleReadPiece((ReadPieceAlert)alert);
+                break;
+            case TORRENT_CHECKED:
+                handleTorrentChecked();
+                break;
+            default:
+                checkError(alert);
+                break;
         }
     }
 
@@ -302,8 +338,6 @@ class TorrentDownloadImpl implements TorrentDownload
     private void checkError(Alert<?> alert)
     {
         Pair<String, Boolean> res = getErrorMsg(alert);
-        String errorMsg = res.first;
-        boolean isNonCritical = res.second;
 
         if (alert.type() == AlertType.FASTRESUME_REJECTED) {
             resumeDataRejected = true;
@@ -313,6 +347,11 @@ class TorrentDownloadImpl implements TorrentDownload
             }
         }
 
+        dispatcher.persist(() -> handleError(res.first, res.second));
+    }
+
+    private void handleError(String errorMsg, boolean isNonCritical)
+    {
         if (errorMsg != null) {
             Log.e(TAG, "Torrent " + id + ": " + errorMsg);
 
@@ -388,7 +427,7 @@ class TorrentDownloadImpl implements TorrentDownload
         return Pair.create(errorMsg, isNonCritical);
     }
 
-    private void handleMetadata(MetadataReceivedAlert alert)
+    private void handleMetadata(TorrentHandle th)
     {
         Exception[] err = new Exception[1];
         String newName = null;
@@ -397,7 +436,6 @@ class TorrentDownloadImpl implements TorrentDownload
             torrent = repo.getTorrentById(id);
             if (torrent == null)
                 throw new NullPointerException(id + " doesn't exists");
-            TorrentHandle th = alert.handle();
             TorrentInfo ti = th.torrentFile();
             if (ti == null) {
                 return;
@@ -449,7 +487,7 @@ class TorrentDownloadImpl implements TorrentDownload
                 alert.bufferPtr(),
                 err);
 
-        notifyListeners((listener) ->
+        notifyListenersSync((listener) ->
                 listener.onReadPiece(id, info));
     }
 
@@ -461,11 +499,14 @@ class TorrentDownloadImpl implements TorrentDownload
         forceStop();
 
         if (partsFile != null) {
-            try {
-                fs.deleteFile(partsFile);
-            } catch (FileNotFoundException | UnknownUriException e) {
-                /* Ignore */
-            }
+            Uri file = partsFile;
+            dispatcher.persist(() -> {
+                try {
+                    fs.deleteFile(file);
+                } catch (FileNotFoundException | UnknownUriException e) {
+                    /* Ignore */
+                }
+            });
         }
     }
 
@@ -489,42 +530,106 @@ class TorrentDownloadImpl implements TorrentDownload
      */
 
     @Override
-    public void saveResumeData(boolean force)
+    public boolean saveResumeData(boolean force)
     {
+        /* Nothing has changed since the last save, the stored data is up to date */
+        if (!force && !needSaveResumeData())
+            return false;
+
         long now = System.currentTimeMillis();
 
         if (force || (now - lastSaveResumeTime) >= SAVE_RESUME_SYNC_TIME)
             lastSaveResumeTime = now;
         else
             /* Skip, too fast, see SAVE_RESUME_SYNC_TIME */
-            return;
+            return false;
 
         try {
             if (th.isValid()) {
+                resumeDataDirty.set(false);
                 criticalWork.setSaveResume(true);
                 th.saveResumeData(TorrentHandle.SAVE_INFO_DICT);
+
+                return true;
             }
 
         } catch (Exception e) {
             Log.w(TAG, "Error triggering resume data of " + id + ":");
             Log.w(TAG, Log.getStackTraceString(e));
 
+            resumeDataDirty.set(true);
             criticalWork.setSaveResume(false);
         }
+
+        return false;
+    }
+
+    @Override
+    public boolean flushResumeData()
+    {
+        if (!needSaveResumeData())
+            return false;
+
+        saveResumeData(true);
+
+        return true;
+    }
+
+    private boolean needSaveResumeData()
+    {
+        if (resumeDataDirty.get())
+            return true;
+
+        try {
+            return th.isValid() && th.needSaveResumeData();
+
+        } catch (Exception e) {
+            return true;
+        }
     }
 
     private void serializeResumeData(SaveResumeDataAlert alert)
     {
+        byte[] data;
+        boolean completed;
+        long lastActiveTime;
         try {
-            byte_vector data = libtorrent.write_resume_data(alert.params().swig()).bencode();
-            repo.addFastResume(new FastResume(id, Vectors.byte_vector2bytes(data)));
+            /* Alert params are valid only on the alert thread */
+            add_torrent_params params = alert.params().swig();
+            data = Vectors.byte_vector2bytes(libtorrent.write_resume_data(params).bencode());
+            completed = params.getCompleted_time() > 0;
+            lastActiveTime = Math.max(params.getLast_download(), params.getLast_upload()) * 1000;
 
         } catch (Throwable e) {
             Log.e(TAG, Log.getStackTraceString(e));
-
-        } finally {
             criticalWork.setSaveResume(false);
+
+            return;
         }
+
+        /* Written in a batch with other torrents; the critical work ends after writing */
+        resumeWriter.write(new FastResume(id, data),
+                () -> criticalWork.setSaveResume(false));
+        dispatcher.persist(() -> updateRestoreOrder(completed, lastActiveTime));
+    }
+
+    /*
+     * Keeps the fields of the torrent row that define the restore order,
+     * so that restoring doesn't need to read the resume data of all torrents
+     */
+
+    private void updateRestoreOrder(boolean completed, long lastActiveTime)
+    {
+        Torrent torrent = repo.getTorrentById(id);
+        if (torrent == null)
+            return;
+        if (torrent.completed == completed &&
+                lastActiveTime - torrent.lastActiveTime < LAST_ACTIVE_TIME_PRECISION)
+            return;
+
+        torrent.completed = completed;
+        torrent.lastActiveTime = Math.max(torrent.lastActiveTime, lastActiveTime);
+        repo.updateTorrent(torrent);
     }
 
     @Override
@@ -554,7 +659,8 @@ class TorrentDownloadImpl implements TorrentDownload
                                 if (state.changeTime < recentChangeTime.get())
                                     return;
                                 recentChangeTime.set(state.changeTime);
-                                if (!(emitter.isDisposed() || state.isDuringChange())) {
+                                if (!(emitter.isDisposed() || state.isDuringChange() ||
+                                        criticalWork.isDuringChange())) {
                                     doStop();
                                     emitter.onComplete();
                                 }
@@ -584,7 +690,6 @@ class TorrentDownloadImpl implements TorrentDownload
         if (!stopRequested || stopped)
             return;
 
-        sessionManager.removeListener(listener);
         stopRequested = false;
         stopped = true;
         stopEvent = null;
@@ -702,15 +807,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (ts == null)
             return 0;
 
-        float fp = ts.progress();
-        if (Float.compare(fp, 1f) == 0)
-            return 100;
-
-        int p = (int)(fp * 100);
-        if (p > 0)
-            return Math.min(p, 100);
-
-        return 0;
+        return TorrentStatusSnapshot.calcProgress(ts);
     }
 
     @Override
@@ -838,10 +935,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return 0;
 
-        TorrentStatus ts = th.status();
-        int peers = ts.numComplete() + ts.numIncomplete();
-
-        return (peers > 0 ? peers : ts.listPeers());
+        return TorrentStatusSnapshot.calcTotalPeers(th.status());
     }
 
     @Override
@@ -850,10 +944,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return 0;
 
-        TorrentStatus ts = th.status();
-        int numComplete = ts.numComplete();
-
-        return (numComplete > 0 ? numComplete : ts.listSeeds());
+        return TorrentStatusSnapshot.calcTotalSeeds(th.status());
     }
 
     @Override
@@ -862,10 +953,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return 0;
 
-        TorrentStatus ts = th.status();
-        int numIncomplete = ts.numIncomplete();
-
-        return (numIncomplete > 0 ? numIncomplete : ts.listPeers() - ts.listSeeds());
+        return TorrentStatusSnapshot.calcTotalLeechers(th.status());
     }
 
     @Override
@@ -990,15 +1078,52 @@ class TorrentDownloadImpl implements TorrentDownload
     }
 
     @Override
-    public boolean[] pieces()
+    public PieceBitfield pieces()
     {
         if (operationNotAllowed())
-            return new boolean[0];
+            return PieceBitfield.EMPTY;
 
         PieceIndexBitfield bitfield = th.status(TorrentHandle.QUERY_PIECES).pieces();
-        boolean[] pieces = new boolean[bitfield.size()];
-        for (int i = 0; i < bitfield.size(); i++)
-            pieces[i] = bitfield.getBit(i);
+        int size = bitfield.size();
+        int count = bitfield.count();
+        PieceBitfield prev = lastPieces;
+        boolean sameSize = prev != null && prev.size() == size;
+        /*
+         * Downloaded piece is cleared only by recheck, which resets the
+         * last pieces, so the same count means the same pieces
+         */
+        if (sameSize && prev.cardinality() == count)
+            return prev;
+
+        BitSet bits;
+        if (count == 0) {
+            bits = new BitSet(size);
+
+        } else if (count == size) {
+            bits = new BitSet(size);
+            bits.set(0, size);
+
+        } else if (sameSize && prev.cardinality() < count) {
+            /* Query only the pieces that were missing, until all new pieces are found */
+            bits = prev.copyBits();
+            int newPieces = count - prev.cardinality();
+            for (int i = bits.nextClearBit(0); i < size && newPieces > 0; i = bits.nextClearBit(i + 1)) {
+                if (bitfield.getBit(i)) {
+                    bits.set(i);
+                    --newPieces;
+                }
+            }
+
+        } else {
+            bits = new BitSet(size);
+            for (int i = 0; i < size; i++) {
+                if (bitfield.getBit(i))
+                    bits.set(i);
+            }
+        }
+
+        PieceBitfield pieces = new PieceBitfield(size, bits);
+        lastPieces = pieces;
 
         return pieces;
     }
@@ -1172,15 +1297,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (getStateCode() != TorrentStateCode.DOWNLOADING)
             return MAX_ETA;
 
-        TorrentStatus status = th.status();
-        long left = status.totalWanted() - status.totalWantedDone();
-        long rate = status.downloadPayloadRate();
-        if (left <= 0)
-            return 0;
-        if (rate <= 0)
-            return MAX_ETA;
-
-        return Math.min(left / rate, MAX_ETA);
+        return TorrentStatusSnapshot.calcETA(th.status());
     }
 
     @Override
@@ -1250,6 +1367,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return;
 
+        lastPieces = null;
         th.forceRecheck();
     }
 
@@ -1265,20 +1383,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return 0;
 
-        TorrentStatus ts = th.status();
-        long allTimeUpload = ts.allTimeUpload();
-        long allTimeDownload = ts.allTimeDownload();
-        long totalDone = ts.totalDone();
-        /*
-         * Special case for a seeder who lost its stats,
-         * also assume nobody will import a 99% done torrent
-         */
-        long downloaded = (allTimeDownload < totalDone * 0.01 ? totalDone : allTimeDownload);
-        if (downloaded == 0)
-            return (allTimeUpload == 0 ? 0.0 : MAX_RATIO);
-        double ratio = (double)allTimeUpload / (double)downloaded;
-
-        return Math.min(ratio, MAX_RATIO);
+        return TorrentStatusSnapshot.calcShareRatio(th.status());
     }
 
     @Override
@@ -1356,7 +1461,7 @@ class TorrentDownloadImpl implements TorrentDownload
             return TorrentStateCode.ERROR;
 
         TorrentStatus status = th.status();
-        boolean isPaused = isPaused(status);
+        boolean isPaused = TorrentStatusSnapshot.isPaused(status);
 
         if (isPaused && status.isFinished())
             return TorrentStateCode.FINISHED;
@@ -1367,40 +1472,34 @@ class TorrentDownloadImpl implements TorrentDownload
         if (!isPaused && status.isFinished())
             return TorrentStateCode.SEEDING;
 
-       return stateToStateCode(status.state());
+       return TorrentStatusSnapshot.stateToStateCode(status.state());
     }
 
-    private TorrentStateCode stateToStateCode(TorrentStatus.State state)
+    @Override
+    public TorrentStatusSnapshot getStatusSnapshot()
     {
-        switch (state) {
-            case CHECKING_RESUME_DATA:
-            case CHECKING_FILES:
-                return TorrentStateCode.CHECKING;
-            case DOWNLOADING_METADATA:
-                return TorrentStateCode.DOWNLOADING_METADATA;
-            case DOWNLOADING:
-                return TorrentStateCode.DOWNLOADING;
-            case FINISHED:
-                return TorrentStateCode.FINISHED;
-            case SEEDING:
-                return TorrentStateCode.SEEDING;
-            default:
-                return TorrentStateCode.UNKNOWN;
-        }
+        if (operationNotAllowed())
+            return new TorrentStatusSnapshot(getStateCode());
+
+        /* Single native call, all values are taken from it */
+        TorrentStatus status = th.status(true);
+        if (status == null)
+            return new TorrentStatusSnapshot(getStateCode());
+
+        return new TorrentStatusSnapshot(
+                status,
+                sessionManager.isRunning(),
+                sessionManager.isPaused()
+        );
     }
 
     @Override
     public boolean isPaused()
     {
-        return !operationNotAllowed() && (isPaused(th.status(true)) ||
+        return !operationNotAllowed() && (TorrentStatusSnapshot.isPaused(th.status(true)) ||
                 sessionManager.isPaused() || !sessionManager.isRunning());
     }
 
-    private boolean isPaused(TorrentStatus s)
-    {
-        return s.flags().and_(TorrentFlags.PAUSED).non_zero();
-    }
-
     @Override
     public boolean isSeeding()
     {
@@ -1498,16 +1597,25 @@ class TorrentDownloadImpl implements TorrentDownload
 
             return filesAvail;
         }
+
+        /* Number of available pieces before the index, so each file is counted in O(1) */
+        int[] availableBefore = new int[piecesAvailability.length + 1];
+        for (int p = 0; p < piecesAvailability.length; p++)
+            availableBefore[p + 1] = availableBefore[p] + (piecesAvailability[p] > 0 ? 1 : 0);
+
+        FileStorage fs = ti.files();
+        long pieceLength = ti.pieceLength();
         for (int i = 0; i < numFiles; i++) {
-            Pair<Integer, Integer> filePieces = getFilePieces(ti, i);
-            if (filePieces == null) {
+            long fileSize = fs.fileSize(i);
+            long fileOffset = fs.fileOffset(i);
+            int first = (int)(fileOffset / pieceLength);
+            int last = (int)((fileOffset + fileSize - 1) / pieceLength);
+            if (first < 0 || last < first || last >= piecesAvailability.length) {
                 filesAvail[i] = -1;
                 continue;
             }
-            int availablePieces = 0;
-            for (int p = filePieces.first; p <= filePieces.second; p++)
-                availablePieces += (piecesAvailability[p] > 0 ? 1 : 0);
-            filesAvail[i] = (double)availablePieces / (filePieces.second - filePieces.first + 1);
+            int availablePieces = availableBefore[last + 1] - availableBefore[first];
+            filesAvail[i] = (double)availablePieces / (last - first + 1);
         }
 
         return filesAvail;
@@ -1519,18 +1627,20 @@ class TorrentDownloadImpl implements TorrentDownload
         if (operationNotAllowed())
             return new int[0];
 
-        PieceIndexBitfield pieces = th.status(TorrentHandle.QUERY_PIECES).pieces();
-        List<AdvancedPeerInfo> peers = advancedPeerInfo();
-        int[] avail = new int[pieces.size()];
-        for (int i = 0; i < pieces.size(); i++)
-            avail[i] = (pieces.getBit(i) ? 1 : 0);
+        /*
+         * libtorrent already maintains the availability from the have and bitfield
+         * messages of the peers, so there is no need to walk the peer bitfields
+         */
+        int_vector peersAvail = new int_vector();
+        th.swig().piece_availability(peersAvail);
 
-        for (AdvancedPeerInfo peer : peers) {
-            PieceIndexBitfield peerPieces = peer.pieces();
-            for (int i = 0; i < pieces.size(); i++)
-                if (peerPieces.getBit(i))
-                    ++avail[i];
-        }
+        PieceBitfield pieces = pieces();
+        int[] avail = new int[pieces.size()];
+        int numPeersAvail = Math.min(avail.length, peersAvail.size());
+        for (int i = 0; i < numPeersAvail; i++)
+            avail[i] = peersAvail.get(i);
+        for (int i = pieces.nextSetBit(0); i >= 0 && i < avail.length; i = pieces.nextSetBit(i + 1))
+            ++avail[i];
 
         return avail;
     }
@@ -1566,41 +1676,90 @@ class TorrentDownloadImpl implements TorrentDownload
     }
 
     /*
-     * Set the bytes of the selected file that you're interested in
-     * the piece of that specific offset is selected and that piece plus the 1 preceding and the 3 after it.
-     * These pieces will then be prioritised, which results in continuing the sequential download after that piece
+     * Set the pieces of the selected file that the reader is reading now.
+     * The reader's scheduler sets the deadlines of the pieces ahead of it,
+     * within a window sized by the reading rate (see StreamScheduler)
      */
 
     @Override
-    public void setInterestedPieces(@NonNull TorrentStream stream, int startPiece, int numPieces)
+    public void setInterestedPieces(@NonNull TorrentInputStream reader,
+                                    @NonNull TorrentStream stream,
+                                    int startPiece,
+                                    int numPieces)
     {
-        if (startPiece < 0 || numPieces < 0)
+        if (startPiece < 0 || numPieces < 0 || operationNotAllowed())
             return;
 
-        for (int i = 0; i < numPieces; i++) {
-            int piece = startPiece + i;
-            if (piece > stream.lastFilePiece)
-                break;
+        StreamScheduler scheduler = streamSchedulers.get(reader);
+        if (scheduler == null) {
+            StreamScheduler newScheduler = new StreamScheduler(stream.firstFilePiece,
+                    stream.lastFilePiece, stream.pieceLength, new StreamPieces(stream));
+            scheduler = streamSchedulers.putIfAbsent(reader, newScheduler);
+            if (scheduler == null)
+                scheduler = newScheduler;
+        }
+        scheduler.onRead(startPiece, numPieces, SystemClock.elapsedRealtime());
+    }
 
-            if (i + 1 == numPieces) {
-                int preloadPieces = PRELOAD_PIECES_COUNT;
-                for (int p = piece; p <= stream.lastFilePiece; p++) {
-                    /* Set max priority to first found piece that is not confirmed finished */
-                    if (!operationNotAllowed() && !th.havePiece(p)) {
-                        th.piecePriority(p, org.libtorrent4j.Priority.TOP_PRIORITY);
-                        th.setPieceDeadline(p, DEFAULT_PIECE_DEADLINE);
-                        preloadPieces--;
-                        if (preloadPieces == 0)
-                            break;
-                    }
-                }
+    @Override
+    public void removeInterestedPieces(@NonNull TorrentInputStream reader)
+    {
+        StreamScheduler scheduler = streamSchedulers.remove(reader);
+        if (scheduler != null)
+            scheduler.release();
+    }
 
-            } else {
-                if (!operationNotAllowed() && !th.havePiece(piece)) {
-                    th.piecePriority(piece, org.libtorrent4j.Priority.TOP_PRIORITY);
-                    th.setPieceDeadline(piece, DEFAULT_PIECE_DEADLINE);
+    private final class StreamPieces implements StreamScheduler.Pieces
+    {
+        private final TorrentStream stream;
+
+        StreamPieces(TorrentStream stream)
+        {
+            this.stream = stream;
+        }
+
+        @Override
+        public boolean havePiece(int piece)
+        {
+            return !operationNotAllowed() && th.havePiece(piece);
+        }
+
+        @Override
+        public void setDeadline(int piece, int deadline)
+        {
+            if (operationNotAllowed())
+                return;
+
+            synchronized (streamDeadlines) {
+                Integer owners = streamDeadlines.get(piece);
+                streamDeadlines.put(piece, (owners == null ? 1 : owners + 1));
+            }
+            th.piecePriority(piece, org.libtorrent4j.Priority.TOP_PRIORITY);
+            th.setPieceDeadline(piece, deadline);
+        }
+
+        @Override
+        public void resetDeadline(int piece)
+        {
+            if (operationNotAllowed())
+                return;
+
+            synchronized (streamDeadlines) {
+                Integer owners = streamDeadlines.get(piece);
+                if (owners != null && owners > 1) {
+                    /* Still needed by another reader */
+                    streamDeadlines.put(piece, owners - 1);
+                    return;
                 }
+                streamDeadlines.remove(piece);
             }
+            th.resetPieceDeadline(piece);
+            org.libtorrent4j.Priority priority = th.filePriority(stream.selectedFileIndex);
+            /* The boundary pieces are shared with the neighbouring files */
+            if ((piece == stream.firstFilePiece || piece == stream.lastFilePiece) &&
+                priority.swig() < org.libtorrent4j.Priority.DEFAULT.swig())
+                priority = org.libtorrent4j.Priority.DEFAULT;
+            th.piecePriority(piece, priority);
         }
     }
 
@@ -1619,7 +1778,7 @@ class TorrentDownloadImpl implements TorrentDownload
         if (filePieces == null)
             throw new IllegalArgumentException("Incorrect file index");
 
-        return new TorrentStream(id, fileIndex,
+        return new TorrentStream(id, fileIndex, fs.filePath(fileIndex),
                                  filePieces.first, filePieces.second, ti.pieceLength(),
                                  fs.fileOffset(fileIndex), fs.fileSize(fileIndex),
                                  ti.pieceSize(filePieces.second));
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.proninyaroslav.libretorrent.core.model.data.RestoreProgress;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.Subject;
+
+/*
+ * Restores torrents from the previous session. Resume data is read and decoded
+ * on a worker pool, while the number of torrents that are being added to
+ * the session (i.e. waiting for the add_torrent alert) is limited by the parallelism.
+ * Decoded torrents are added in order of their priority.
+ */
+
+class TorrentRestoreScheduler
+{
+    private static final String TAG = TorrentRestoreScheduler.class.getSimpleName();
+
+    /* If the add_torrent alert is lost (e.g. adding failed), don't occupy the slot forever */
+    private static final long ADD_SLOT_TIMEOUT = 10000; /* ms */
+    private static final long IDLE_THREAD_TIMEOUT = 10; /* sec */
+    private static final int PREFETCH_CHUNK_SIZE = 50;
+    /* Max number of tasks with prefetched, but not yet added data */
+    private static final int PREFETCH_LIMIT = PREFETCH_CHUNK_SIZE * 2;
+
+    interface Task
+    {
+        @NonNull
+        String getTorrentId();
+
+        /*
+         * Reads and decodes the resume data. Doesn't occupy an add slot
+         */
+
+        void prepare() throws Exception;
+
+        /*
+         * Tasks with a lower value are added first. Called after prepare()
+         */
+
+        long getPriority();
+
+        /*
+         * Requests adding the torrent to the session.
+         * Returns false if there is nothing to wait for (e.g. torrent is already running)
+         */
+
+        boolean add() throws Exception;
+
+        void onError(@NonNull Exception e);
+    }
+
+    /*
+     * Loads the data of a chunk of tasks at once (e.g. with one database query)
+     * before the tasks are passed to the workers
+     */
+
+    interface Prefetcher<T extends Task>
+    {
+        void prefetch(@NonNull List<T> tasks) throws Exception;
+    }
+
+    /* Emitted from the worker and alert threads */
+    private final Subject<RestoreProgress> progress =
+            BehaviorSubject.createDefault(new RestoreProgress(0, 0, 0)).toSerialized();
+    private Batch batch;
+
+    synchronized void schedule(@NonNull List<? extends Task> tasks, int parallelism)
+    {
+        schedule(tasks, parallelism, null);
+    }
+
+    synchronized <T extends Task> void schedule(@NonNull List<T> tasks,
+                                                int parallelism,
+                                                @Nullable Prefetcher<T> prefetcher)
+    {
+        if (tasks.isEmpty())
+            return;
+
+        if (batch == null || batch.isFinished()) {
+            if (batch != null)
+                batch.shutdown();
+            batch = new Batch(Math.max(1, parallelism));
+        }
+        if (prefetcher == null)
+            batch.submit(tasks);
+        else
+            batch.submit(tasks, prefetcher);
+    }
+
+    /*
+     * Must be called when the add_torrent alert is received
+     */
+
+    void onTorrentAdded(@NonNull String id)
+    {
+        Batch b;
+        synchronized (this) {
+            b = batch;
+        }
+        if (b != null)
+            b.complete(id);
+    }
+
+    synchronized void cancel()
+    {
+        if (batch == null)
+            return;
+
+        batch.shutdown();
+        batch = null;
+    }
+
+    Observable<RestoreProgress> observeProgress()
+    {
+        return progress;
+    }
+
+    private static final class ReadyTask implements Comparable<ReadyTask>
+    {
+        final Task task;
+        final long priority;
+        final long seq;
+        final boolean prefetched;
+
+        ReadyTask(Task task, long seq, boolean prefetched)
+        {
+            this.task = task;
+            this.priority = task.getPriority();
+            this.seq = seq;
+            this.prefetched = prefetched;
+        }
+
+        @Override
+        public int compareTo(ReadyTask o)
+        {
+            int res = Long.compare(priority, o.priority);
+
+            return res != 0 ? res : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final class Batch
+    {
+        private final int parallelism;
+        private final ScheduledThreadPoolExecutor exec;
+        /* Decoded tasks, waiting for a free add slot */
+        private final PriorityBlockingQueue<ReadyTask> ready = new PriorityBlockingQueue<>();
+        private final AtomicLong readySeq = new AtomicLong();
+        /* Torrents that are waiting for the add_torrent alert and the request time */
+        private final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<>();
+        private final AtomicInteger total = new AtomicInteger();
+        private final AtomicInteger restored = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        /* Limits the memory used by the prefetched data */
+        private final Semaphore prefetchSlots = new Semaphore(PREFETCH_LIMIT);
+        private final ArrayList<Thread> feeders = new ArrayList<>();
+        private volatile boolean cancelled;
+
+        Batch(int parallelism)
+        {
+            this.parallelism = parallelism;
+            exec = new ScheduledThreadPoolExecutor(parallelism);
+            exec.setKeepAliveTime(IDLE_THREAD_TIMEOUT, TimeUnit.SECONDS);
+            /* Threads aren't needed after restoring */
+            exec.allowCoreThreadTimeOut(true);
+        }
+
+        void submit(List<? extends Task> tasks)
+        {
+            total.addAndGet(tasks.size());
+            emitProgress();
+
+            for (Task task : tasks)
+                exec.execute(() -> prepare(task, false));
+        }
+
+        synchronized <T extends Task> void submit(List<T> tasks, Prefetcher<T> prefetcher)
+        {
+            total.addAndGet(tasks.size());
+            emitProgress();
+
+            /* Chunks are prefetched in order, while the workers decode the previous ones */
+            Thread feeder = new Thread(() -> {
+                try {
+                    for (int i = 0; i < tasks.size() && !cancelled; i += PREFETCH_CHUNK_SIZE) {
+                        List<T> chunk = tasks.subList(i, Math.min(i + PREFETCH_CHUNK_SIZE, tasks.size()));
+                        prefetchSlots.acquire(chunk.size());
+                        try {
+                            prefetcher.prefetch(chunk);
+
+                        } catch (Exception e) {
+                            /* Tasks can load their data by themselves */
+                            Log.e(TAG, "Prefetch error: " + Log.getStackTraceString(e));
+                        }
+                        for (T task : chunk)
+                            exec.execute(() -> prepare(task, true));
+                    }
+
+                } catch (InterruptedException | RejectedExecutionException e) {
+                    /* Cancelled */
+                }
+            }, TAG + "-feeder");
+            feeders.add(feeder);
+            feeder.start();
+        }
+
+        private void prepare(Task task, boolean prefetched)
+        {
+            if (cancelled)
+                return;
+
+            try {
+                task.prepare();
+
+            } catch (Exception e) {
+                if (prefetched)
+                    prefetchSlots.release();
+                fail(task, e);
+
+                return;
+            }
+
+            ready.add(new ReadyTask(task, readySeq.getAndIncrement(), prefetched));
+            dispatch();
+        }
+
+        /*
+         * Passes the most important decoded tasks to the session while there are free slots
+         */
+
+        private synchronized void dispatch()
+        {
+            if (cancelled)
+                return;
+
+            reclaimStale();
+
+            while (pending.size() < parallelism) {
+                ReadyTask r = ready.poll();
+                if (r == null)
+                    break;
+                if (r.prefetched)
+                    prefetchSlots.release();
+                add(r.task);
+            }
+        }
+
+        private void add(Task task)
+        {
+            String id = task.getTorrentId();
+            pending.put(id, SystemClock.elapsedRealtime());
+            try {
+                if (task.add())
+                    /* Check that the slot is released in time */
+                    exec.schedule(this::dispatch, ADD_SLOT_TIMEOUT, TimeUnit.MILLISECONDS);
+                else
+                    finish(id, true);
+
+            } catch (RejectedExecutionException e) {
+                /* Cancelled */
+
+            } catch (Exception e) {
+                pending.remove(id);
+                fail(task, e);
+            }
+        }
+
+        private void reclaimStale()
+        {
+            long now = SystemClock.elapsedRealtime();
+            for (Map.Entry<String, Long> entry : pending.entrySet()) {
+                if (now - entry.getValue() < ADD_SLOT_TIMEOUT)
+                    continue;
+
+                Log.w(TAG, "No add_torrent alert after " + ADD_SLOT_TIMEOUT + " ms for " + entry.getKey());
+                finish(entry.getKey(), false);
+            }
+        }
+
+        void complete(String id)
+        {
+            if (!finish(id, true))
+                return;
+
+            try {
+                exec.execute(this::dispatch);
+
+            } catch (RejectedExecutionException e) {
+                /* Cancelled */
+            }
+        }
+
+        private boolean finish(String id, boolean success)
+        {
+            if (pending.remove(id) == null)
+                return false;
+
+            if (success)
+                restored.incrementAndGet();
+            else
+                failed.incrementAndGet();
+            emitProgress();
+
+            return true;
+        }
+
+        private void fail(Task task, Exception e)
+        {
+            failed.incrementAndGet();
+            emitProgress();
+            task.onError(e);
+        }
+
+        boolean isFinished()
+        {
+            return restored.get() + failed.get() >= total.get();
+        }
+
+        synchronized void shutdown()
+        {
+            cancelled = true;
+            pending.clear();
+            ready.clear();
+            for (Thread feeder : feeders)
+                feeder.interrupt();
+            feeders.clear();
+            exec.shutdownNow();
+        }
+
+        private void emitProgress()
+        {
+            if (!cancelled)
+                progress.onNext(new RestoreProgress(total.get(), restored.get(), failed.get()));
+        }
+    }
+}
@@ -28,13 +28,19 @@ import org.proninyaroslav.libretorrent.core.exception.TorrentAlreadyExistsExcept
 import org.proninyaroslav.libretorrent.core.exception.UnknownUriException;
 import org.proninyaroslav.libretorrent.core.logger.Logger;
 import org.proninyaroslav.libretorrent.core.model.AddTorrentParams;
+import org.proninyaroslav.libretorrent.core.model.AddTorrentResult;
 import org.proninyaroslav.libretorrent.core.model.TorrentEngineListener;
 import org.proninyaroslav.libretorrent.core.model.data.MagnetInfo;
+import org.proninyaroslav.libretorrent.core.model.data.RestoreProgress;
+import org.proninyaroslav.libretorrent.core.model.data.ShutdownProgress;
 import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
 import org.proninyaroslav.libretorrent.core.settings.SessionSettings;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+
+import io.reactivex.Flowable;
 
 public interface TorrentSession
 {
@@ -46,6 +52,13 @@ public interface TorrentSession
 
     TorrentDownload getTask(String id);
 
+    /*
+     * Returns the latest status received from the periodic session-wide update.
+     * If the torrent hasn't been reported yet, the status is requested directly
+     */
+
+    TorrentStatusSnapshot getStatusSnapshot(String id);
+
     void setSettings(@NonNull SessionSettings settings);
 
     void setSettings(@NonNull SessionSettings settings, boolean keepPort);
@@ -65,10 +78,24 @@ public interface TorrentSession
             DecodeException,
             UnknownUriException;
 
+    /*
+     * Adds several torrents at once: decodes them in parallel and
+     * inserts them into the database in one transaction. Errors are reported per item
+     */
+
+    List<AddTorrentResult> addTorrents(
+            @NonNull List<AddTorrentParams> paramsList,
+            boolean removeFile
+    );
+
     void deleteTorrent(@NonNull String id, boolean withFiles);
 
     void restoreTorrents();
 
+    Flowable<RestoreProgress> observeRestoreProgress();
+
+    Flowable<ShutdownProgress> observeShutdownProgress();
+
     MagnetInfo fetchMagnet(@NonNull String uri) throws Exception;
 
     MagnetInfo parseMagnet(@NonNull String uri);
@@ -20,6 +20,7 @@
 package org.proninyaroslav.libretorrent.core.model.session;
 
 import android.net.Uri;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -38,6 +39,7 @@ import org.libtorrent4j.TcpEndpoint;
 import org.libtorrent4j.TorrentFlags;
 import org.libtorrent4j.TorrentHandle;
 import org.libtorrent4j.TorrentInfo;
+import org.libtorrent4j.TorrentStatus;
 import org.libtorrent4j.Vectors;
 import org.libtorrent4j.alerts.Alert;
 import org.libtorrent4j.alerts.AlertType;
@@ -46,7 +48,10 @@ import org.libtorrent4j.alerts.MetadataReceivedAlert;
 import org.libtorrent4j.alerts.PortmapErrorAlert;
 import org.libtorrent4j.alerts.SaveResumeDataAlert;
 import org.libtorrent4j.alerts.SessionErrorAlert;
+import org.libtorrent4j.alerts.StateChangedAlert;
+import org.libtorrent4j.alerts.StateUpdateAlert;
 import org.libtorrent4j.alerts.TorrentAlert;
+import org.libtorrent4j.alerts.TorrentRemovedAlert;
 import org.libtorrent4j.swig.add_torrent_params;
 import org.libtorrent4j.swig.alert;
 import org.libtorrent4j.swig.alert_category_t;
@@ -68,13 +73,18 @@ import org.proninyaroslav.libretorrent.core.exception.DecodeException;
 import org.proninyaroslav.libretorrent.core.exception.TorrentAlreadyExistsException;
 import org.proninyaroslav.libretorrent.core.exception.UnknownUriException;
 import org.proninyaroslav.libretorrent.core.model.AddTorrentParams;
+import org.proninyaroslav.libretorrent.core.model.AddTorrentResult;
 import org.proninyaroslav.libretorrent.core.model.TorrentEngineListener;
 import org.proninyaroslav.libretorrent.core.model.data.MagnetInfo;
 import org.proninyaroslav.libretorrent.core.model.data.Priority;
+import org.proninyaroslav.libretorrent.core.model.data.RestoreProgress;
 import org.proninyaroslav.libretorrent.core.model.data.SessionStats;
+import org.proninyaroslav.libretorrent.core.model.data.ShutdownProgress;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
 import org.proninyaroslav.libretorrent.core.model.data.entity.FastResume;
+import org.proninyaroslav.libretorrent.core.model.data.entity.TagInfo;
 import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
-import org.proninyaroslav.libretorrent.core.model.data.metainfo.TorrentMetaInfo;
+import org.proninyaroslav.libretorrent.core.model.stream.PieceCache;
 import org.proninyaroslav.libretorrent.core.settings.SessionSettings;
 import org.proninyaroslav.libretorrent.core.storage.TorrentRepository;
 import org.proninyaroslav.libretorrent.core.system.FileDescriptorWrapper;
@@ -90,22 +100,31 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Objects;
-import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
+import io.reactivex.BackpressureStrategy;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.functions.Function;
 import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.Subject;
 
 public class TorrentSessionImpl extends SessionManager
         implements TorrentSession
@@ -125,27 +144,57 @@ public class TorrentSessionImpl extends SessionManager
             AlertType.TORRENT_LOG.swig(),
             AlertType.SESSION_STATS.swig(),
             AlertType.SAVE_RESUME_DATA.swig(),
+            AlertType.STATE_UPDATE.swig(),
+            AlertType.STATE_CHANGED.swig(),
+            AlertType.TORRENT_PAUSED.swig(),
+            AlertType.TORRENT_RESUMED.swig(),
+            AlertType.TORRENT_FINISHED.swig(),
     };
 
+    private static final long STATUS_UPDATE_INTERVAL = 1000; /* ms */
+    /* Number of torrents that are decoded at the same time during bulk add */
+    private static final int ADD_TORRENTS_PARALLELISM = 4;
+    private static final long CRITICAL_WORK_THREAD_IDLE_TIMEOUT = 60; /* sec */
+    /* Number of torrents that save resume data at the same time during shutdown */
+    private static final int SHUTDOWN_BATCH_SIZE = 100;
+    /* Must be less than the time the system gives to stop the foreground service */
+    private static final long SHUTDOWN_DEADLINE = 20000; /* ms */
+    /* Part of the deadline for the torrents that haven't started saving before it */
+    private static final long SHUTDOWN_GRACE_PERIOD = 3000; /* ms */
+    private static final long FINAL_FLUSH_TIMEOUT = 5000; /* ms */
+
     /* Base unit in KiB. Used for create torrent */
     private static final int[] pieceSize = {0, 16, 32, 64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768};
     private static final String PEER_FINGERPRINT = "Lr"; /* called peer id */
     private static final String USER_AGENT = "LibreTorrent %s";
 
     private InnerListener innerListener;
+    private TaskAlertRouter taskAlertRouter;
     private ConcurrentLinkedQueue<TorrentEngineListener> listeners = new ConcurrentLinkedQueue<>();
+    /* Runs the alert handling work outside the alert thread */
+    private volatile AlertDispatcher dispatcher =
+            new AlertDispatcher(SessionSettings.DEFAULT_ALERT_DISPATCH_QUEUE_DEPTH);
+    /* Critical work events of all torrents, one thread that exits when idle */
+    private ThreadPoolExecutor criticalWorkExec = makeCriticalWorkExecutor();
     private SessionSettings settings = new SessionSettings();
     private ReentrantLock settingsLock = new ReentrantLock();
-    private Queue<LoadTorrentTask> restoreTorrentsQueue = new LinkedList<>();
-    private ExecutorService loadTorrentsExec;
+    private TorrentRestoreScheduler restoreScheduler = new TorrentRestoreScheduler();
     private ConcurrentHashMap<String, TorrentDownload> torrentTasks = new ConcurrentHashMap<>();
-    /* Wait list for non added magnets */
-    private HashSet<String> magnets = new HashSet<>();
+    /* Latest status of torrents, updated by the state_update alert */
+    private ConcurrentHashMap<String, TorrentStatusSnapshot> statusCache = new ConcurrentHashMap<>();
+    /* Torrents with the status changed since the last notification */
+    private final Set<String> changedStatusIds = ConcurrentHashMap.newKeySet();
+    /* Fetching magnets and torrents waiting for the add_torrent alert */
+    private InFlightTorrents inFlight = new InFlightTorrents();
     private ConcurrentHashMap<String, byte[]> loadedMagnets = new ConcurrentHashMap<>();
-    private ArrayList<String> addTorrentsList = new ArrayList<>();
     private ReentrantLock syncMagnet = new ReentrantLock();
     private CompositeDisposable disposables = new CompositeDisposable();
     private TorrentRepository repo;
+    /* Writes resume data of all torrents in batches */
+    private ResumeDataWriter resumeWriter;
+    private Completable finalFlush;
+    private Subject<ShutdownProgress> shutdownProgress =
+            BehaviorSubject.createDefault(new ShutdownProgress(0, 0)).toSerialized();
     private FileSystemFacade fs;
     private SystemFacade system;
     private SessionLogger sessionLogger;
@@ -163,10 +212,11 @@ public class TorrentSessionImpl extends SessionManager
         this.started = false;
         this.sessionLogger = new SessionLogger();
         this.repo = repo;
+        this.resumeWriter = new ResumeDataWriter(repo);
         this.fs = fs;
         this.system = system;
         innerListener = new InnerListener();
-        loadTorrentsExec = Executors.newCachedThreadPool();
+        taskAlertRouter = new TaskAlertRouter();
     }
 
     @Override
@@ -193,6 +243,21 @@ public class TorrentSessionImpl extends SessionManager
         return torrentTasks.get(id);
     }
 
+    @Override
+    public TorrentStatusSnapshot getStatusSnapshot(String id)
+    {
+        TorrentDownload task = torrentTasks.get(id);
+        if (task == null)
+            return null;
+
+        /* The cached status doesn't reflect changes of the session state */
+        TorrentStatusSnapshot status = statusCache.get(id);
+        if (status == null || !isRunning() || isPaused())
+            status = task.getStatusSnapshot();
+
+        return status;
+    }
+
     public void setSettings(@NonNull SessionSettings settings) {
         setSettings(settings, true);
     }
@@ -254,25 +319,11 @@ public class TorrentSessionImpl extends SessionManager
         if (operationNotAllowed())
             return null;
 
-        Torrent torrent = new Torrent(
-                params.sha1hash,
-                params.downloadPath,
-                params.name,
-                params.addPaused, System.currentTimeMillis(),
-                params.sequentialDownload,
-                params.firstLastPiecePriority
-        );
-
-        byte[] bencode = null;
-        if (params.fromMagnet) {
-            bencode = getLoadedMagnet(params.sha1hash);
-            removeLoadedMagnet(params.sha1hash);
-            if (bencode == null)
-                torrent.setMagnetUri(params.source);
-        }
+        PreparedTorrent p = prepareTorrent(params);
+        Torrent torrent = p.torrent;
 
         if (repo.getTorrentById(torrent.id) != null) {
-            mergeTorrent(torrent.id, params, bencode);
+            mergeTorrent(torrent.id, params, p.ti);
             throw new TorrentAlreadyExistsException();
         }
 
@@ -281,27 +332,8 @@ public class TorrentSessionImpl extends SessionManager
             repo.replaceTags(torrent.id, params.tags);
         }
 
-        if (!torrent.isDownloadingMetadata()) {
-            /*
-             * This is possible if the magnet data came after Torrent object
-             * has already been created and nothing is known about the received data
-             */
-            if (params.filePriorities.length == 0) {
-                try (FileDescriptorWrapper w = fs.getFD(Uri.parse(params.source))) {
-                    FileDescriptor outFd = w.open("r");
-                    try (FileInputStream is = new FileInputStream(outFd)) {
-                        TorrentMetaInfo info = new TorrentMetaInfo(is);
-                        params.filePriorities = new Priority[info.fileCount];
-                        Arrays.fill(params.filePriorities, Priority.DEFAULT);
-                    }
-                } catch (FileNotFoundException e) {
-                    /* Ignore */
-                }
-            }
-        }
-
         try {
-            download(torrent.id, params, bencode);
+            download(torrent, params, p.ti);
 
         } catch (Exception e) {
             repo.deleteTorrent(torrent);
@@ -319,52 +351,207 @@ public class TorrentSessionImpl extends SessionManager
         return torrent;
     }
 
-    private void download(String id, AddTorrentParams params, byte[] bencode) throws IOException, UnknownUriException
+    private void download(Torrent torrent, AddTorrentParams params, TorrentInfo ti) throws UnknownUriException
     {
         if (operationNotAllowed())
             return;
 
-        cancelFetchMagnet(id);
-
-        Torrent torrent = repo.getTorrentById(id);
-        if (torrent == null)
-            throw new IOException("Torrent " + id + " is null");
+        cancelFetchMagnet(torrent.id);
 
-        addTorrentsList.add(params.sha1hash);
+        inFlight.startAdding(params.sha1hash);
 
-        String path = fs.makeFileSystemPath(params.downloadPath);
-        File saveDir = new File(path);
-        if (torrent.isDownloadingMetadata()) {
-            download(params.source, saveDir, params.addPaused, params.sequentialDownload);
-            return;
-        }
+        try {
+            String path = fs.makeFileSystemPath(params.downloadPath);
+            File saveDir = new File(path);
+            if (torrent.isDownloadingMetadata()) {
+                download(params.source, saveDir, params.addPaused, params.sequentialDownload);
+                return;
+            }
 
-        TorrentDownload task = torrentTasks.get(torrent.id);
-        if (task != null)
-            task.remove(false);
+            TorrentDownload task = torrentTasks.get(torrent.id);
+            if (task != null)
+                task.remove(false);
 
-        if (params.fromMagnet) {
-            download(bencode,
+            download(ti,
                     saveDir,
                     params.filePriorities,
                     params.sequentialDownload,
                     params.addPaused,
                     null);
-        } else {
-            try (FileDescriptorWrapper w = fs.getFD(Uri.parse(params.source))) {
-                FileDescriptor fd = w.open("r");
-                try (FileInputStream fin = new FileInputStream(fd)) {
-                    FileChannel chan = fin.getChannel();
-
-                    download(new TorrentInfo(chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size())),
-                            saveDir,
-                            params.filePriorities,
-                            params.sequentialDownload,
-                            params.addPaused,
-                            null);
+
+        } catch (UnknownUriException | RuntimeException e) {
+            /* The add_torrent alert won't come */
+            inFlight.cancelAdding(params.sha1hash);
+            throw e;
+        }
+    }
+
+    private TorrentInfo readTorrentInfo(String source) throws IOException, UnknownUriException
+    {
+        try (FileDescriptorWrapper w = fs.getFD(Uri.parse(source))) {
+            FileDescriptor fd = w.open("r");
+            try (FileInputStream fin = new FileInputStream(fd)) {
+                FileChannel chan = fin.getChannel();
+
+                return new TorrentInfo(chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size()));
+            }
+        }
+    }
+
+    /*
+     * Torrent that is decoded and ready to be added
+     */
+
+    private static final class PreparedTorrent
+    {
+        final Torrent torrent;
+        final TorrentInfo ti;
+
+        PreparedTorrent(Torrent torrent, TorrentInfo ti)
+        {
+            this.torrent = torrent;
+            this.ti = ti;
+        }
+    }
+
+    private PreparedTorrent prepareTorrent(AddTorrentParams params)
+            throws IOException, DecodeException, UnknownUriException
+    {
+        Torrent torrent = new Torrent(
+                params.sha1hash,
+                params.downloadPath,
+                params.name,
+                params.addPaused, System.currentTimeMillis(),
+                params.sequentialDownload,
+                params.firstLastPiecePriority
+        );
+
+        byte[] bencode = null;
+        if (params.fromMagnet) {
+            bencode = getLoadedMagnet(params.sha1hash);
+            removeLoadedMagnet(params.sha1hash);
+            if (bencode == null)
+                torrent.setMagnetUri(params.source);
+        }
+
+        TorrentInfo ti = null;
+        if (!torrent.isDownloadingMetadata()) {
+            try {
+                if (params.fromMagnet) {
+                    ti = new TorrentInfo(bencode);
+                } else {
+                    /* Reuse the torrent file decoded on the previous add steps */
+                    ti = params.torrentInfo;
+                    if (ti == null)
+                        ti = readTorrentInfo(params.source);
+                    /* Isn't needed after adding */
+                    params.torrentInfo = null;
+                }
+            } catch (IllegalArgumentException e) {
+                throw new DecodeException(e);
+            }
+            if (!ti.isValid())
+                throw new DecodeException("Torrent info not valid");
+
+            if (params.filePriorities == null || params.filePriorities.length == 0) {
+                params.filePriorities = new Priority[ti.numFiles()];
+                Arrays.fill(params.filePriorities, Priority.DEFAULT);
+            }
+        }
+
+        return new PreparedTorrent(torrent, ti);
+    }
+
+    @Override
+    public List<AddTorrentResult> addTorrents(
+            @NonNull List<AddTorrentParams> paramsList,
+            boolean removeFile
+    ) {
+        int count = paramsList.size();
+        ArrayList<AddTorrentResult> results = new ArrayList<>(count);
+        if (operationNotAllowed() || count == 0)
+            return results;
+
+        PreparedTorrent[] prepared = new PreparedTorrent[count];
+        Exception[] errors = new Exception[count];
+
+        /* Validate and decode in parallel */
+        Observable.range(0, count)
+                .flatMap((i) -> Observable.fromCallable(() -> {
+                    try {
+                        prepared[i] = prepareTorrent(paramsList.get(i));
+
+                    } catch (Exception e) {
+                        errors[i] = e;
+                    }
+                    return i;
+                }).subscribeOn(Schedulers.io()), ADD_TORRENTS_PARALLELISM)
+                .blockingSubscribe();
+
+        /* Insert all new torrents and their tags in one transaction */
+        ArrayList<Torrent> newTorrents = new ArrayList<>();
+        HashMap<String, List<TagInfo>> tags = new HashMap<>();
+        HashSet<String> newIds = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            PreparedTorrent p = prepared[i];
+            if (p == null)
+                continue;
+
+            String id = p.torrent.id;
+            if (newIds.contains(id) || repo.getTorrentById(id) != null) {
+                if (!newIds.contains(id))
+                    mergeTorrent(id, paramsList.get(i), p.ti);
+                prepared[i] = null;
+                errors[i] = new TorrentAlreadyExistsException();
+                continue;
+            }
+            newIds.add(id);
+            newTorrents.add(p.torrent);
+            if (!paramsList.get(i).tags.isEmpty())
+                tags.put(id, paramsList.get(i).tags);
+        }
+
+        try {
+            if (!newTorrents.isEmpty())
+                repo.addTorrents(newTorrents, tags);
+
+        } catch (Exception e) {
+            for (int i = 0; i < count; i++) {
+                if (prepared[i] == null)
+                    continue;
+                prepared[i] = null;
+                errors[i] = e;
+            }
+        }
+
+        /* Submit to the session back-to-back */
+        for (int i = 0; i < count; i++) {
+            AddTorrentParams params = paramsList.get(i);
+            PreparedTorrent p = prepared[i];
+            if (p != null) {
+                try {
+                    download(p.torrent, params, p.ti);
+
+                } catch (Exception e) {
+                    repo.deleteTorrent(p.torrent);
+                    errors[i] = e;
+                }
+
+                if (removeFile && !params.fromMagnet) {
+                    try {
+                        fs.deleteFile(Uri.parse(params.source));
+                    } catch (FileNotFoundException | UnknownUriException e) {
+                        // Ignore
+                    }
                 }
             }
+
+            results.add(new AddTorrentResult(params,
+                    (p == null || errors[i] != null ? null : p.torrent),
+                    errors[i]));
         }
+
+        return results;
     }
 
     @Override
@@ -379,6 +566,7 @@ public class TorrentSessionImpl extends SessionManager
             if (torrent != null)
                 repo.deleteTorrent(torrent);
 
+            onTaskRemoved(id);
             notifyListeners((listener) ->
                     listener.onTorrentRemoved(id));
         } else {
@@ -392,6 +580,7 @@ public class TorrentSessionImpl extends SessionManager
         if (operationNotAllowed())
             return;
 
+        ArrayList<LoadTorrentTask> loadTasks = new ArrayList<>();
         for (Torrent torrent : repo.getAllTorrents()) {
             if (torrent == null || isTorrentAlreadyRunning(torrent.id))
                 continue;
@@ -403,7 +592,7 @@ public class TorrentSessionImpl extends SessionManager
                 Log.e(TAG, "Unable to restore torrent:");
                 Log.e(TAG, Log.getStackTraceString(e));
             }
-            LoadTorrentTask loadTask = new LoadTorrentTask(torrent.id);
+            LoadTorrentTask loadTask = new LoadTorrentTask(torrent);
             if (path != null && torrent.isDownloadingMetadata()) {
                 loadTask.putMagnet(
                         torrent.getMagnet(),
@@ -412,9 +601,62 @@ public class TorrentSessionImpl extends SessionManager
                         torrent.sequentialDownload
                 );
             }
-            restoreTorrentsQueue.add(loadTask);
+            loadTasks.add(loadTask);
+        }
+        Collections.sort(loadTasks, (a, b) -> Long.compare(a.getPriority(), b.getPriority()));
+
+        restoreScheduler.schedule(loadTasks, settings.restoreParallelism,
+                this::prefetchResumeData);
+    }
+
+    /*
+     * Restore order: not manually paused, incomplete, recently active torrents first
+     */
+
+    private static long makeRestorePriority(boolean paused, boolean completed, long lastActiveTime)
+    {
+        long maxTime = (1L << 61) - 1;
+        long priority = maxTime - Math.max(0, Math.min(lastActiveTime, maxTime));
+        if (paused)
+            priority |= 1L << 62;
+        if (completed)
+            priority |= 1L << 61;
+
+        return priority;
+    }
+
+    /*
+     * Loads resume data of a chunk of torrents with one query
+     */
+
+    private void prefetchResumeData(List<LoadTorrentTask> loadTasks)
+    {
+        HashMap<String, LoadTorrentTask> tasksById = new HashMap<>();
+        for (LoadTorrentTask task : loadTasks) {
+            if (!task.isMagnet)
+                tasksById.put(task.torrentId, task);
+        }
+        if (tasksById.isEmpty())
+            return;
+
+        for (FastResume fastResume : repo.getFastResumeByIds(new ArrayList<>(tasksById.keySet()))) {
+            LoadTorrentTask task = tasksById.get(fastResume.torrentId);
+            if (task != null)
+                task.fastResumeData = fastResume.data;
         }
-        runNextLoadTorrentTask();
+    }
+
+    @Override
+    public Flowable<RestoreProgress> observeRestoreProgress()
+    {
+        return restoreScheduler.observeProgress()
+                .toFlowable(BackpressureStrategy.LATEST);
+    }
+
+    @Override
+    public Flowable<ShutdownProgress> observeShutdownProgress()
+    {
+        return shutdownProgress.toFlowable(BackpressureStrategy.LATEST);
     }
 
     @Override
@@ -472,7 +714,7 @@ public class TorrentSessionImpl extends SessionManager
                 }
 
                 if (add) {
-                    magnets.add(strHash);
+                    inFlight.startFetching(strHash);
 
                     if (TextUtils.isEmpty(p.getName()))
                         p.setName(strHash);
@@ -487,7 +729,7 @@ public class TorrentSessionImpl extends SessionManager
                     error_code ec = new error_code();
                     th = swig().add_torrent(p, ec);
                     if (!th.is_valid() || ec.failed())
-                        magnets.remove(strHash);
+                        inFlight.cancelFetching(strHash);
                     th.resume();
                 }
 
@@ -519,16 +761,15 @@ public class TorrentSessionImpl extends SessionManager
     @Override
     public void cancelFetchMagnet(@NonNull String infoHash)
     {
-        if (operationNotAllowed() || !magnets.contains(infoHash))
+        if (operationNotAllowed() || !inFlight.cancelFetching(infoHash))
             return;
 
-        magnets.remove(infoHash);
         TorrentHandle th = find(Sha1Hash.parseHex(infoHash));
         if (th != null && th.isValid())
             remove(th, SessionHandle.DELETE_FILES);
     }
 
-    private void mergeTorrent(String id, AddTorrentParams params, byte[] bencode) {
+    private void mergeTorrent(String id, AddTorrentParams params, TorrentInfo ti) {
         if (operationNotAllowed()) {
             return;
         }
@@ -545,12 +786,8 @@ public class TorrentSessionImpl extends SessionManager
         task.setFirstLastPiecePriority(params.firstLastPiecePriority);
 
         try {
-            var ti = (bencode == null ?
-                    new TorrentInfo(new File(Uri.parse(params.source).getPath())) :
-                    new TorrentInfo(bencode));
-
             var th = find(Sha1Hash.parseHex(id));
-            if (th != null) {
+            if (th != null && ti != null) {
                 for (var tracker : ti.trackers()) {
                     th.addTracker(tracker);
                 }
@@ -822,19 +1059,79 @@ public class TorrentSessionImpl extends SessionManager
         if (stopRequested.getAndSet(true))
             return;
 
-        saveAllResumeData();
+        restoreScheduler.cancel();
         stopTasks();
     }
 
+    /*
+     * Saves resume data and stops torrents, at most SHUTDOWN_BATCH_SIZE at a time,
+     * so that the alert queue isn't flooded with resume data of all torrents at once.
+     * A slow torrent occupies only its own slot. The whole shutdown is limited
+     * by one deadline; after it, resume data of the rest of the torrents is
+     * requested at once, and they are given a short grace period
+     */
+
     private void stopTasks()
     {
-        disposables.add(Observable.fromIterable(torrentTasks.values())
-                .filter(Objects::nonNull)
-                .map(TorrentDownload::requestStop)
-                .toList()
-                .flatMapCompletable(Completable::merge) /* Wait for all torrents */
+        ArrayList<TorrentDownload> tasks = new ArrayList<>(torrentTasks.values());
+        int total = tasks.size();
+        AtomicInteger saved = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        /* Torrents that haven't requested resume data yet */
+        Set<TorrentDownload> notStarted = ConcurrentHashMap.newKeySet();
+        notStarted.addAll(tasks);
+        /* Torrents that are still saving, to see what is slow */
+        Set<String> stopping = ConcurrentHashMap.newKeySet();
+        long startTime = SystemClock.elapsedRealtime();
+
+        shutdownProgress.onNext(new ShutdownProgress(total, 0));
+
+        Function<TorrentDownload, Completable> stopTask = (task) -> {
+            if (!notStarted.remove(task))
+                return Completable.complete();
+
+            /* Dirty torrents are saved even if they were saved recently */
+            if (!task.hasMissingFiles() && !task.flushResumeData())
+                skipped.incrementAndGet();
+
+            String id = task.getTorrentId();
+            stopping.add(id);
+
+            return task.requestStop().doOnComplete(() -> {
+                stopping.remove(id);
+                shutdownProgress.onNext(new ShutdownProgress(total, saved.incrementAndGet()));
+            });
+        };
+
+        disposables.add(Flowable.fromIterable(tasks)
+                .flatMapCompletable((task) -> Completable.defer(() -> stopTask.apply(task)),
+                        false, SHUTDOWN_BATCH_SIZE)
+                .timeout(SHUTDOWN_DEADLINE - SHUTDOWN_GRACE_PERIOD, TimeUnit.MILLISECONDS)
+                .onErrorResumeNext((err) -> {
+                    if (!(err instanceof TimeoutException))
+                        return Completable.error(err);
+
+                    Log.w(TAG, "Shutdown deadline exceeded, saved " + saved.get() +
+                            " of " + total + ", not started " + notStarted.size() +
+                            ", still saving: " + stopping);
+
+                    ArrayList<Completable> stops = new ArrayList<>(notStarted.size());
+                    for (TorrentDownload task : new ArrayList<>(notStarted))
+                        stops.add(stopTask.apply(task));
+
+                    return Completable.merge(stops)
+                            .timeout(SHUTDOWN_GRACE_PERIOD, TimeUnit.MILLISECONDS,
+                                    Completable.complete());
+                })
                 .subscribe(
-                        this::handleStoppingTasks,
+                        () -> {
+                            Log.i(TAG, "Torrents stopped in " +
+                                    (SystemClock.elapsedRealtime() - startTime) + " ms: " +
+                                    "total=" + total + ", saved=" + saved.get() +
+                                    ", skipped save (unchanged)=" + skipped.get());
+                            /* The rest are stopped forcibly */
+                            handleStoppingTasks();
+                        },
                         (err) -> {
                             Log.e(TAG, "Error stopping torrents: " +
                                     Log.getStackTraceString(err));
@@ -852,19 +1149,10 @@ public class TorrentSessionImpl extends SessionManager
 
     private void checkStop()
     {
-        if (stopRequested.get() && torrentTasks.isEmpty() && addTorrentsList.isEmpty())
+        if (stopRequested.get() && torrentTasks.isEmpty() && !inFlight.hasAdding())
             super.stop();
     }
 
-    private void saveAllResumeData()
-    {
-        for (TorrentDownload task : torrentTasks.values()) {
-            if (task == null || task.hasMissingFiles())
-                continue;
-            task.saveResumeData(false);
-        }
-    }
-
     @Override
     public boolean isRunning()
     {
@@ -886,8 +1174,13 @@ public class TorrentSessionImpl extends SessionManager
     @Override
     protected void onBeforeStart()
     {
-        addListener(torrentTaskListener);
+        /* The queue depth of the dispatcher is fixed, so the setting is applied on start */
+        int queueDepth = settings.alertDispatchQueueDepth;
+        if (queueDepth > 0 && queueDepth != dispatcher.getQueueDepth())
+            dispatcher = new AlertDispatcher(queueDepth);
+
         addListener(innerListener);
+        addListener(taskAlertRouter);
     }
 
     @Override
@@ -913,6 +1206,25 @@ public class TorrentSessionImpl extends SessionManager
                 notifyListeners(TorrentEngineListener::onSessionStarted))
                 .subscribeOn(Schedulers.io())
                 .subscribe());
+        startStatusUpdates();
+    }
+
+    /*
+     * Requests status of the torrents which have changed since the last request.
+     * The result comes in one state_update alert instead of separate status calls
+     */
+
+    private void startStatusUpdates()
+    {
+        disposables.add(Observable.interval(STATUS_UPDATE_INTERVAL, TimeUnit.MILLISECONDS)
+                .subscribe(
+                        (__) -> {
+                            if (!operationNotAllowed())
+                                swig().post_torrent_updates();
+                        },
+                        (err) -> Log.e(TAG, "Error requesting torrent updates: " +
+                                Log.getStackTraceString(err))
+                ));
     }
 
     private void enableSessionLogger(boolean enable)
@@ -934,15 +1246,34 @@ public class TorrentSessionImpl extends SessionManager
         started = false;
         enableSessionLogger(false);
         parseIpFilterThread = null;
-        magnets.clear();
+        restoreScheduler.cancel();
+        statusCache.clear();
+        inFlight.clear();
         loadedMagnets.clear();
-        removeListener(torrentTaskListener);
+        /* Write the remaining resume data while libtorrent session is being destructed */
+        finalFlush = Completable.fromRunnable(resumeWriter::flush)
+                .subscribeOn(Schedulers.io())
+                .cache();
+        finalFlush.subscribe();
         removeListener(innerListener);
+        removeListener(taskAlertRouter);
     }
 
     @Override
     protected void onAfterStop()
     {
+        Log.i(TAG, "Torrent repository cache: " + repo.getCacheStats());
+        Log.i(TAG, "Alert dispatcher: merged=" + dispatcher.getMergedCount() +
+                ", deferred=" + dispatcher.getDeferredCount());
+        if (finalFlush != null) {
+            if (!finalFlush.blockingAwait(FINAL_FLUSH_TIMEOUT, TimeUnit.MILLISECONDS))
+                Log.w(TAG, "Resume data isn't written in " + FINAL_FLUSH_TIMEOUT + " ms");
+            finalFlush = null;
+        }
+        Log.i(TAG, "Resume data writer: " + resumeWriter.getStats());
+        Log.i(TAG, "Stream piece cache: " + PieceCache.getInstance().getStats());
+        /* Streams are closed with the session, so release the native memory */
+        PieceCache.getInstance().clear();
         notifyListeners(TorrentEngineListener::onSessionStopped);
         stopRequested.set(false);
     }
@@ -953,13 +1284,19 @@ public class TorrentSessionImpl extends SessionManager
         saveSettings();
     }
 
-    private final TorrentEngineListener torrentTaskListener = new TorrentEngineListener() {
-        @Override
-        public void onTorrentRemoved(@NonNull String id)
-        {
-            torrentTasks.remove(id);
-        }
-    };
+    /*
+     * The session's own bookkeeping runs synchronously, before the
+     * listeners are notified, so that a removed task is never returned
+     * by getTask() and a re-added torrent doesn't race with it
+     */
+
+    private void onTaskRemoved(@NonNull String id)
+    {
+        torrentTasks.remove(id);
+        statusCache.remove(id);
+        resumeWriter.discard(id);
+        PieceCache.getInstance().removeTorrent(id);
+    }
 
     private final class InnerListener implements AlertListener
     {
@@ -979,18 +1316,21 @@ public class TorrentSessionImpl extends SessionManager
                     if (th == null)
                         break;
                     String hash = th.infoHash().toHex();
-                    if (magnets.contains(hash))
+                    InFlightTorrents.State state = inFlight.onAdded(hash);
+                    if (state == InFlightTorrents.State.FETCHING)
                         break;
-                    torrentTasks.put(hash, newTask(th, hash));
-                    if (addTorrentsList.contains(hash))
+                    /* Restored torrents are created on demand, most of them may be paused */
+                    torrentTasks.put(hash, (state == InFlightTorrents.State.ADDED ?
+                            newTask(th, hash) :
+                            newLazyTask(th, hash)));
+                    if (state == InFlightTorrents.State.ADDED)
                         notifyListeners((listener) ->
                                 listener.onTorrentAdded(hash));
                     else
                         notifyListeners((listener) ->
                                 listener.onTorrentLoaded(hash));
-                    addTorrentsList.remove(hash);
+                    restoreScheduler.onTorrentAdded(hash);
                     checkStop();
-                    runNextLoadTorrentTask();
                     break;
                 case METADATA_RECEIVED:
                     handleMetadataReceived((MetadataReceivedAlert) alert);
@@ -998,6 +1338,16 @@ public class TorrentSessionImpl extends SessionManager
                 case SESSION_STATS:
                     handleStats();
                     break;
+                case STATE_UPDATE:
+                    handleStateUpdate((StateUpdateAlert) alert);
+                    break;
+                case STATE_CHANGED:
+                case TORRENT_PAUSED:
+                case TORRENT_RESUMED:
+                case TORRENT_FINISHED:
+                    /* Force to request the actual status until the next update */
+                    statusCache.remove(((TorrentAlert<?>)alert).handle().infoHash().toHex());
+                    break;
                 case SAVE_RESUME_DATA:
                     handleSaveMetadata((SaveResumeDataAlert) alert);
                 default:
@@ -1009,46 +1359,125 @@ public class TorrentSessionImpl extends SessionManager
         }
     }
 
-    private void checkError(Alert<?> alert)
+    /*
+     * Single listener for the alerts of all torrents, instead of a listener per torrent
+     */
+
+    private final class TaskAlertRouter implements AlertListener
     {
-        notifyListeners((listener) -> {
-            String msg = null;
-            switch (alert.type()) {
-                case SESSION_ERROR: {
-                    SessionErrorAlert sessionErrorAlert = (SessionErrorAlert)alert;
-                    ErrorCode error = sessionErrorAlert.error();
-                    msg = SessionErrors.getErrorMsg(error);
-                    if (!SessionErrors.isNonCritical(error))
-                        listener.onSessionError(msg);
-                    break;
-                }
-                case LISTEN_FAILED: {
-                    ListenFailedAlert listenFailedAlert = (ListenFailedAlert)alert;
-                    msg = SessionErrors.getErrorMsg(listenFailedAlert.error());
-                    ErrorCode error = listenFailedAlert.error();
-                    if (!SessionErrors.isNonCritical(error))
-                        listener.onSessionError(msg);
-                    break;
-                }
-                case PORTMAP_ERROR: {
-                    PortmapErrorAlert portmapErrorAlert = (PortmapErrorAlert)alert;
-                    ErrorCode error = portmapErrorAlert.error();
-                    msg = SessionErrors.getErrorMsg(error);
-                    if (!SessionErrors.isNonCritical(error))
-                        listener.onNatError(msg);
-                    break;
+        @Override
+        public int[] types()
+        {
+            return TorrentDownloadImpl.ALERT_TYPES;
+        }
+
+        @Override
+        public void alert(Alert<?> alert)
+        {
+            if (!(alert instanceof TorrentAlert<?>))
+                return;
+
+            TorrentHandle th = ((TorrentAlert<?>)alert).handle();
+            TorrentDownload task = findTask(th, alert);
+            /* The task notifies the listeners asynchronously, so the bookkeeping goes first */
+            if (task != null && alert.type() == AlertType.TORRENT_REMOVED)
+                onTaskRemoved(task.getTorrentId());
+
+            if (task instanceof TorrentDownloadImpl) {
+                ((TorrentDownloadImpl)task).onAlert(alert);
+
+            } else if (task instanceof LazyTorrentDownload) {
+                LazyTorrentDownload lazyTask = (LazyTorrentDownload)task;
+                TorrentDownloadImpl impl = lazyTask.peek();
+                if (impl != null)
+                    impl.onAlert(alert);
+                else
+                    handleLazyAlert(lazyTask, th, alert);
+            }
+        }
+
+        /*
+         * Keeps the torrent lightweight unless the alert needs the full torrent
+         */
+
+        private void handleLazyAlert(LazyTorrentDownload lazyTask, TorrentHandle th, Alert<?> alert)
+        {
+            String id = lazyTask.getTorrentId();
+            AlertType type = alert.type();
+            if (!LazyTorrentDownload.isPromotingAlert(type)) {
+                if (lazyTask.isStopped())
+                    return;
+
+                if (type == AlertType.STATE_CHANGED) {
+                    StateChangedAlert a = (StateChangedAlert)alert;
+                    TorrentStateCode prevState = TorrentStatusSnapshot.stateToStateCode(a.getPrevState());
+                    TorrentStateCode state = TorrentStatusSnapshot.stateToStateCode(a.getState());
+                    notifyListeners((listener) ->
+                            listener.onTorrentStateChanged(id, prevState, state));
+
+                } else if (type == AlertType.TORRENT_PAUSED) {
+                    notifyListeners((listener) -> listener.onTorrentPaused(id));
                 }
+                /* Checked torrent has no rejected resume data to save, it's tracked by the full torrent */
+
+            } else if (th.isValid()) {
+                if (lazyTask.isStopped())
+                    return;
+                /* The torrent has become active */
+                lazyTask.promote().onAlert(alert);
+
+            } else if (type == AlertType.TORRENT_REMOVED) {
+                lazyTask.requestStop();
+                notifyListeners((listener) -> listener.onTorrentRemoved(id));
             }
+        }
 
-            if (msg != null)
-                Log.e(TAG, "Session error: " + msg);
-        });
+        private TorrentDownload findTask(TorrentHandle th, Alert<?> alert)
+        {
+            if (th.isValid())
+                return torrentTasks.get(th.infoHash().toHex());
+
+            /* The handle is already invalid, but the alert carries the hash */
+            if (alert instanceof TorrentRemovedAlert)
+                return torrentTasks.get(((TorrentRemovedAlert)alert).infoHash().toHex());
+
+            return null;
+        }
+    }
+
+    private void checkError(Alert<?> alert)
+    {
+        /* Alert memory is valid only on the alert thread, so decode it right here */
+        ErrorCode error;
+        switch (alert.type()) {
+            case SESSION_ERROR:
+                error = ((SessionErrorAlert)alert).error();
+                break;
+            case LISTEN_FAILED:
+                error = ((ListenFailedAlert)alert).error();
+                break;
+            case PORTMAP_ERROR:
+                error = ((PortmapErrorAlert)alert).error();
+                break;
+            default:
+                return;
+        }
+
+        String msg = SessionErrors.getErrorMsg(error);
+        Log.e(TAG, "Session error: " + msg);
+        if (SessionErrors.isNonCritical(error))
+            return;
+
+        if (alert.type() == AlertType.PORTMAP_ERROR)
+            notifyListeners((listener) -> listener.onNatError(msg));
+        else
+            notifyListeners((listener) -> listener.onSessionError(msg));
     }
 
     private void handleMetadataReceived(MetadataReceivedAlert alert) {
         TorrentHandle th = alert.handle();
         String hash = th.infoHash().toHex();
-        if (magnets.contains(hash)) {
+        if (inFlight.isFetching(hash)) {
             th.saveResumeData(TorrentHandle.SAVE_INFO_DICT);
         }
     }
@@ -1056,7 +1485,7 @@ public class TorrentSessionImpl extends SessionManager
     private void handleSaveMetadata(SaveResumeDataAlert alert) {
         TorrentHandle th = alert.handle();
         String hash = th.infoHash().toHex();
-        if (!magnets.contains(hash)) {
+        if (!inFlight.isFetching(hash)) {
             return;
         }
 
@@ -1068,19 +1497,53 @@ public class TorrentSessionImpl extends SessionManager
                 listener.onMagnetLoaded(hash, loadedMagnets.get(hash)));
     }
 
-    private void handleStats()
+    private void handleStateUpdate(StateUpdateAlert alert)
     {
         if (operationNotAllowed())
             return;
 
-        notifyListeners((listener) -> listener.onSessionStats(
-                new SessionStats(dhtNodes(),
-                        getTotalDownload(),
-                        getTotalUpload(),
-                        getDownloadSpeed(),
-                        getUploadSpeed(),
-                        getListenPort()))
-        );
+        boolean running = isRunning();
+        boolean paused = isPaused();
+        /* Status memory is owned by the alert, so make a copy right here */
+        for (TorrentStatus status : alert.status()) {
+            String hash = new TorrentHandle(status.swig().getHandle()).infoHash().toHex();
+            if (!torrentTasks.containsKey(hash))
+                continue;
+            statusCache.put(hash, new TorrentStatusSnapshot(status, running, paused));
+            changedStatusIds.add(hash);
+        }
+        if (changedStatusIds.isEmpty())
+            return;
+
+        /* The ids are accumulated until the listeners are notified, so merging loses nothing */
+        dispatcher.deliverMerged("statusChanged", () -> {
+            HashSet<String> ids = new HashSet<>();
+            Iterator<String> it = changedStatusIds.iterator();
+            while (it.hasNext()) {
+                ids.add(it.next());
+                it.remove();
+            }
+            if (!ids.isEmpty())
+                notifyListenersSync((listener) ->
+                        listener.onTorrentsStatusChanged(Collections.unmodifiableSet(ids)));
+        });
+    }
+
+    private void handleStats()
+    {
+        /* Only the latest stats are needed */
+        dispatcher.deliverMerged("sessionStats", () -> {
+            if (operationNotAllowed())
+                return;
+
+            SessionStats stats = new SessionStats(dhtNodes(),
+                    getTotalDownload(),
+                    getTotalUpload(),
+                    getDownloadSpeed(),
+                    getUploadSpeed(),
+                    getListenPort());
+            notifyListenersSync((listener) -> listener.onSessionStats(stats));
+        });
     }
 
     private static String dhtBootstrapNodes()
@@ -1325,10 +1788,32 @@ public class TorrentSessionImpl extends SessionManager
         .subscribe());
     }
 
-    private TorrentDownload newTask(TorrentHandle th, String id)
+    private static ThreadPoolExecutor makeCriticalWorkExecutor()
+    {
+        ThreadPoolExecutor exec = new ThreadPoolExecutor(1, 1,
+                CRITICAL_WORK_THREAD_IDLE_TIMEOUT, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                (r) -> new Thread(r, "TorrentCriticalWork"));
+        exec.allowCoreThreadTimeOut(true);
+
+        return exec;
+    }
+
+    private TorrentDownloadImpl newTask(TorrentHandle th, String id)
+    {
+        TorrentDownloadImpl task = new TorrentDownloadImpl(this, repo, fs, listeners,
+                dispatcher, criticalWorkExec, resumeWriter, id, th, settings.autoManaged);
+        task.setMaxConnections(settings.connectionsLimitPerTorrent);
+        task.setMaxUploads(settings.uploadsLimitPerTorrent);
+
+        return task;
+    }
+
+    private TorrentDownload newLazyTask(TorrentHandle th, String id)
     {
-        TorrentDownload task = new TorrentDownloadImpl(this, repo, fs, listeners,
-                id, th, settings.autoManaged);
+        TorrentDownload task = new LazyTorrentDownload(id, th, this, repo,
+                () -> newTask(th, id));
+        /* Applied to the handle, doesn't create the full torrent */
         task.setMaxConnections(settings.connectionsLimitPerTorrent);
         task.setMaxUploads(settings.uploadsLimitPerTorrent);
 
@@ -1342,51 +1827,45 @@ public class TorrentSessionImpl extends SessionManager
 
     private void notifyListeners(@NonNull CallListener l)
     {
-        for (TorrentEngineListener listener : listeners) {
-            if (listener != null)
-                l.apply(listener);
-        }
+        dispatcher.deliver(() -> notifyListenersSync(l));
     }
 
-    private void runNextLoadTorrentTask()
+    private void notifyListenersSync(@NonNull CallListener l)
     {
-        if (operationNotAllowed()) {
-            restoreTorrentsQueue.clear();
-
-            return;
-        }
-
-        LoadTorrentTask task;
-        try {
-            task = restoreTorrentsQueue.poll();
-
-        } catch (Exception e) {
-            Log.e(TAG, Log.getStackTraceString(e));
-
-            return;
+        for (TorrentEngineListener listener : listeners) {
+            if (listener != null)
+                l.apply(listener);
         }
-
-        if (task != null)
-            loadTorrentsExec.execute(task);
     }
 
     private boolean isTorrentAlreadyRunning(String torrentId)
     {
-        return torrentTasks.containsKey(torrentId) || addTorrentsList.contains(torrentId);
+        return torrentTasks.containsKey(torrentId) || inFlight.isAdding(torrentId);
     }
 
-    private final class LoadTorrentTask implements Runnable
+    private final class LoadTorrentTask implements TorrentRestoreScheduler.Task
     {
         private String torrentId;
+        private boolean manuallyPaused;
+        /* Known before scheduling from the torrent row, refined by the resume data */
+        private boolean completed;
+        private long lastActiveTime;
         private File saveDir = null;
         private String magnetUri = null;
         private boolean isMagnet = false;
         private boolean magnetPaused = false;
         private boolean magnetSequentialDownload = false;
+        /* Can be prefetched */
+        private volatile byte[] fastResumeData = null;
+        private add_torrent_params params = null;
 
-        LoadTorrentTask(String torrentId)
+        LoadTorrentTask(Torrent torrent)
         {
-            this.torrentId = torrentId;
+            this.torrentId = torrent.id;
+            this.manuallyPaused = torrent.manuallyPaused;
+            this.completed = torrent.completed;
+            /* In seconds, like the resume data */
+            this.lastActiveTime = Math.max(torrent.dateAdded, torrent.lastActiveTime) / 1000;
         }
 
         public void putMagnet(
@@ -1402,29 +1881,72 @@ public class TorrentSessionImpl extends SessionManager
             isMagnet = true;
         }
 
+        @NonNull
         @Override
-        public void run()
+        public String getTorrentId()
         {
-            try {
-                if (isTorrentAlreadyRunning(torrentId))
-                    return;
+            return torrentId;
+        }
 
-                if (isMagnet)
-                    download(magnetUri, saveDir, magnetPaused, magnetSequentialDownload);
-                else
-                    restoreDownload(torrentId);
-
-            } catch (Exception e) {
-                Log.e(TAG, "Unable to restore torrent from previous session: " + torrentId, e);
-                Torrent torrent = repo.getTorrentById(torrentId);
-                if (torrent != null) {
-                    torrent.error = e.toString();
-                    repo.updateTorrent(torrent);
-                }
+        @Override
+        public void prepare() throws Exception
+        {
+            if (isMagnet || isTorrentAlreadyRunning(torrentId))
+                return;
+
+            byte[] data = fastResumeData;
+            fastResumeData = null;
+            if (data == null) {
+                FastResume fastResume = repo.getFastResumeById(torrentId);
+                if (fastResume == null)
+                    throw new IOException("Fast resume data not found");
+                data = fastResume.data;
+            }
+            params = readResumeData(data);
+        }
+
+        @Override
+        public long getPriority()
+        {
+            boolean completed = this.completed;
+            long lastActiveTime = this.lastActiveTime;
+            if (params != null) {
+                completed = params.getCompleted_time() > 0;
+                lastActiveTime = Math.max(lastActiveTime,
+                        Math.max(params.getLast_download(), params.getLast_upload()));
+            }
+
+            return makeRestorePriority(manuallyPaused, completed, lastActiveTime);
+        }
 
-                notifyListeners((listener) ->
-                        listener.onRestoreSessionError(torrentId));
+        @Override
+        public boolean add()
+        {
+            if (operationNotAllowed() || isTorrentAlreadyRunning(torrentId))
+                return false;
+
+            if (isMagnet)
+                download(magnetUri, saveDir, magnetPaused, magnetSequentialDownload);
+            else if (params != null)
+                restoreDownload(params);
+            else
+                return false;
+
+            return true;
+        }
+
+        @Override
+        public void onError(@NonNull Exception e)
+        {
+            Log.e(TAG, "Unable to restore torrent from previous session: " + torrentId, e);
+            Torrent torrent = repo.getTorrentById(torrentId);
+            if (torrent != null) {
+                torrent.error = e.toString();
+                repo.updateTorrent(torrent);
             }
+
+            notifyListeners((listener) ->
+                    listener.onRestoreSessionError(torrentId));
         }
     }
 
@@ -1576,17 +2098,10 @@ public class TorrentSessionImpl extends SessionManager
         settings.defaultTrackersList = trackersList;
     }
 
-    private void restoreDownload(String id) throws IOException
+    private add_torrent_params readResumeData(byte[] data)
     {
-        if (operationNotAllowed())
-            return;
-
-        FastResume fastResume = repo.getFastResumeById(id);
-        if (fastResume == null)
-            throw new IOException("Fast resume data not found");
-
         error_code ec = new error_code();
-        byte_vector buffer = Vectors.bytes2byte_vector(fastResume.data);
+        byte_vector buffer = Vectors.bytes2byte_vector(data);
 
         bdecode_node n = new bdecode_node();
         int ret = bdecode_node.bdecode(buffer, n, ec);
@@ -1598,6 +2113,11 @@ public class TorrentSessionImpl extends SessionManager
         if (ec.value() != 0)
             throw new IllegalArgumentException("Unable to read the resume data: " + ec.message());
 
+        return p;
+    }
+
+    private void restoreDownload(add_torrent_params p)
+    {
         torrent_flags_t flags = p.getFlags();
         /* Disable force saving resume data, because they already have */
         flags = flags.and_(TorrentFlags.NEED_SAVE_RESUME.inv());
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import static org.proninyaroslav.libretorrent.core.model.data.TorrentInfo.MAX_ETA;
+
+import androidx.annotation.NonNull;
+
+import org.libtorrent4j.TorrentFlags;
+import org.libtorrent4j.TorrentStatus;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
+
+/*
+ * Immutable copy of the torrent state, taken from a single TorrentStatus.
+ * Allows to read all values needed by the UI without querying
+ * the native status for every field.
+ */
+
+public class TorrentStatusSnapshot
+{
+    static final double MAX_RATIO = 9999.;
+
+    public final TorrentStateCode stateCode;
+    public final int progress;
+    public final long receivedBytes;
+    public final long totalSentBytes;
+    public final long totalWanted;
+    public final long downloadSpeed;
+    public final long uploadSpeed;
+    public final long eta;
+    public final int totalPeers;
+    public final int connectedPeers;
+    public final int totalSeeds;
+    public final int connectedSeeds;
+    public final int totalLeechers;
+    public final int connectedLeechers;
+    public final int numDownloadedPieces;
+    public final double shareRatio;
+    /* In seconds */
+    public final long activeTime;
+    public final long seedingTime;
+    public final boolean sequentialDownload;
+    public final boolean autoManaged;
+    public final boolean paused;
+    public final boolean finished;
+    public final boolean seeding;
+
+    /*
+     * Snapshot for a torrent without valid status (e.g. stopped or removed)
+     */
+
+    TorrentStatusSnapshot(@NonNull TorrentStateCode stateCode)
+    {
+        this.stateCode = stateCode;
+        progress = 0;
+        receivedBytes = 0;
+        totalSentBytes = 0;
+        totalWanted = 0;
+        downloadSpeed = 0;
+        uploadSpeed = 0;
+        eta = MAX_ETA;
+        totalPeers = 0;
+        connectedPeers = 0;
+        totalSeeds = 0;
+        connectedSeeds = 0;
+        totalLeechers = 0;
+        connectedLeechers = 0;
+        numDownloadedPieces = 0;
+        shareRatio = 0;
+        activeTime = 0;
+        seedingTime = 0;
+        sequentialDownload = false;
+        autoManaged = false;
+        paused = false;
+        finished = false;
+        seeding = false;
+    }
+
+    TorrentStatusSnapshot(@NonNull TorrentStatus status,
+                          boolean sessionRunning,
+                          boolean sessionPaused)
+    {
+        boolean pausedFlag = isPaused(status);
+
+        paused = pausedFlag || sessionPaused || !sessionRunning;
+        finished = status.isFinished();
+        seeding = status.isSeeding();
+        sequentialDownload = status.flags().and_(TorrentFlags.SEQUENTIAL_DOWNLOAD).non_zero();
+        autoManaged = status.flags().and_(TorrentFlags.AUTO_MANAGED).non_zero();
+        stateCode = calcStateCode(status, sessionRunning, paused);
+
+        progress = calcProgress(status);
+        receivedBytes = status.totalDone();
+        totalSentBytes = status.allTimeUpload();
+        totalWanted = status.totalWanted();
+        downloadSpeed = (finished || paused || seeding ? 0 : status.downloadPayloadRate());
+        uploadSpeed = (finished && !seeding || paused ? 0 : status.uploadPayloadRate());
+        eta = (stateCode == TorrentStateCode.DOWNLOADING ? calcETA(status) : MAX_ETA);
+
+        int numPeers = status.numPeers();
+        int numSeeds = status.numSeeds();
+        connectedPeers = numPeers;
+        connectedSeeds = numSeeds;
+        connectedLeechers = numPeers - numSeeds;
+        totalPeers = calcTotalPeers(status);
+        totalSeeds = calcTotalSeeds(status);
+        totalLeechers = calcTotalLeechers(status);
+
+        numDownloadedPieces = status.numPieces();
+        shareRatio = calcShareRatio(status);
+        activeTime = status.activeDuration() / 1000L;
+        seedingTime = status.seedingDuration() / 1000L;
+    }
+
+    static boolean isPaused(@NonNull TorrentStatus s)
+    {
+        return s.flags().and_(TorrentFlags.PAUSED).non_zero();
+    }
+
+    /*
+     * Paused flag must include the session state (paused or not running)
+     */
+
+    static TorrentStateCode calcStateCode(@NonNull TorrentStatus status,
+                                          boolean sessionRunning,
+                                          boolean paused)
+    {
+        if (!sessionRunning)
+            return TorrentStateCode.STOPPED;
+
+        if (paused)
+            return TorrentStateCode.PAUSED;
+
+        if (status.isFinished())
+            return TorrentStateCode.SEEDING;
+
+        return stateToStateCode(status.state());
+    }
+
+    static TorrentStateCode stateToStateCode(TorrentStatus.State state)
+    {
+        switch (state) {
+            case CHECKING_RESUME_DATA:
+            case CHECKING_FILES:
+                return TorrentStateCode.CHECKING;
+            case DOWNLOADING_METADATA:
+                return TorrentStateCode.DOWNLOADING_METADATA;
+            case DOWNLOADING:
+                return TorrentStateCode.DOWNLOADING;
+            case FINISHED:
+                return TorrentStateCode.FINISHED;
+            case SEEDING:
+                return TorrentStateCode.SEEDING;
+            default:
+                return TorrentStateCode.UNKNOWN;
+        }
+    }
+
+    static int calcProgress(@NonNull TorrentStatus status)
+    {
+        float fp = status.progress();
+        if (Float.compare(fp, 1f) == 0)
+            return 100;
+
+        int p = (int)(fp * 100);
+        if (p > 0)
+            return Math.min(p, 100);
+
+        return 0;
+    }
+
+    static long calcETA(@NonNull TorrentStatus status)
+    {
+        long left = status.totalWanted() - status.totalWantedDone();
+        long rate = status.downloadPayloadRate();
+        if (left <= 0)
+            return 0;
+        if (rate <= 0)
+            return MAX_ETA;
+
+        return Math.min(left / rate, MAX_ETA);
+    }
+
+    static int calcTotalPeers(@NonNull TorrentStatus status)
+    {
+        int peers = status.numComplete() + status.numIncomplete();
+
+        return (peers > 0 ? peers : status.listPeers());
+    }
+
+    static int calcTotalSeeds(@NonNull TorrentStatus status)
+    {
+        int numComplete = status.numComplete();
+
+        return (numComplete > 0 ? numComplete : status.listSeeds());
+    }
+
+    static int calcTotalLeechers(@NonNull TorrentStatus status)
+    {
+        int numIncomplete = status.numIncomplete();
+
+        return (numIncomplete > 0 ? numIncomplete : status.listPeers() - status.listSeeds());
+    }
+
+    static double calcShareRatio(@NonNull TorrentStatus status)
+    {
+        long allTimeUpload = status.allTimeUpload();
+        long allTimeDownload = status.allTimeDownload();
+        long totalDone = status.totalDone();
+        /*
+         * Special case for a seeder who lost its stats,
+         * also assume nobody will import a 99% done torrent
+         */
+        long downloaded = (allTimeDownload < totalDone * 0.01 ? totalDone : allTimeDownload);
+        if (downloaded == 0)
+            return (allTimeUpload == 0 ? 0.0 : MAX_RATIO);
+        double ratio = (double)allTimeUpload / (double)downloaded;
+
+        return Math.min(ratio, MAX_RATIO);
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return "TorrentStatusSnapshot{" +
+                "stateCode=" + stateCode +
+                ", progress=" + progress +
+                ", receivedBytes=" + receivedBytes +
+                ", totalSentBytes=" + totalSentBytes +
+                ", totalWanted=" + totalWanted +
+                ", downloadSpeed=" + downloadSpeed +
+                ", uploadSpeed=" + uploadSpeed +
+                ", eta=" + eta +
+                ", totalPeers=" + totalPeers +
+                ", connectedPeers=" + connectedPeers +
+                ", paused=" + paused +
+                ", finished=" + finished +
+                ", seeding=" + seeding +
+                '}';
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Recently read pieces of all streams, keyed by torrent and piece index.
+ * The data is stored in direct buffers outside of the Java heap.
+ * Evicted buffers are pooled and reused for the new pieces of the same size.
+ * The memory budget includes the pooled buffers. The pool is trimmed when
+ * the last stream is closed; buffers of removed torrents aren't pooled.
+ */
+
+public class PieceCache
+{
+    public static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+    private static volatile PieceCache INSTANCE;
+
+    public static PieceCache getInstance()
+    {
+        if (INSTANCE == null) {
+            synchronized (PieceCache.class) {
+                if (INSTANCE == null)
+                    INSTANCE = new PieceCache(DEFAULT_MAX_SIZE);
+            }
+        }
+
+        return INSTANCE;
+    }
+
+    public static class Stats
+    {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final int entries;
+        public final long size;
+        public final long maxSize;
+
+        public Stats(long hits, long misses, long evictions,
+                     int entries, long size, long maxSize)
+        {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.size = size;
+            this.maxSize = maxSize;
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return "Stats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    ", entries=" + entries +
+                    ", size=" + size +
+                    ", maxSize=" + maxSize +
+                    '}';
+        }
+    }
+
+    private static final class Key
+    {
+        final String torrentId;
+        final int piece;
+
+        Key(String torrentId, int piece)
+        {
+            this.torrentId = torrentId;
+            this.piece = piece;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            Key key = (Key)o;
+
+            return piece == key.piece && torrentId.equals(key.torrentId);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = torrentId.hashCode();
+            result = 31 * result + piece;
+
+            return result;
+        }
+    }
+
+    private static final class Entry
+    {
+        final ByteBuffer buf;
+        final int size;
+        /* Number of readers that copy the data outside of the lock */
+        int pins;
+        /* Removed while pinned, the buffer is dropped by the last reader */
+        boolean removed;
+
+        Entry(ByteBuffer buf, int size)
+        {
+            this.buf = buf;
+            this.size = size;
+        }
+    }
+
+    /* Guarded by this */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<Integer, ArrayDeque<ByteBuffer>> freeBuffers = new HashMap<>();
+    private long maxSize;
+    /* Capacity of all buffers, including the free ones */
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private int openStreams;
+
+    PieceCache(long maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized void setMaxSize(long maxSize)
+    {
+        this.maxSize = maxSize;
+        while (size > maxSize) {
+            if (!dropFreeBuffer() && !evictEldest())
+                break;
+        }
+    }
+
+    public synchronized long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public synchronized boolean contains(@NonNull String torrentId, int piece)
+    {
+        return entries.containsKey(new Key(torrentId, piece));
+    }
+
+    /*
+     * Copies the part of the piece to dst.
+     * Returns false if the piece isn't cached
+     */
+
+    public boolean read(@NonNull String torrentId, int piece, int offset,
+                        @NonNull byte[] dst, int dstOffset, int len)
+    {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new Key(torrentId, piece));
+            if (entry == null || offset < 0 || len > entry.size - offset) {
+                ++misses;
+                return false;
+            }
+            ++hits;
+            ++entry.pins;
+        }
+
+        try {
+            ByteBuffer buf = entry.buf.duplicate();
+            buf.position(offset);
+            buf.get(dst, dstOffset, len);
+
+        } finally {
+            synchronized (this) {
+                if (--entry.pins == 0 && entry.removed)
+                    size -= entry.buf.capacity();
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * Copies the remaining bytes of src as the piece data.
+     * Returns false if the piece doesn't fit in the memory budget
+     */
+
+    public boolean put(@NonNull String torrentId, int piece, @NonNull ByteBuffer src)
+    {
+        Key key = new Key(torrentId, piece);
+        int pieceSize = src.remaining();
+        ByteBuffer buf;
+        synchronized (this) {
+            if (entries.get(key) != null)
+                return true;
+            buf = obtainBuffer(capacityFor(pieceSize));
+            if (buf == null)
+                return false;
+        }
+
+        /* The buffer isn't shared yet, so copy without the lock */
+        buf.clear();
+        buf.put(src.duplicate());
+
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                entries.put(key, new Entry(buf, pieceSize));
+            } else {
+                /* Another stream has cached the same piece */
+                releaseBuffer(buf);
+            }
+        }
+
+        return true;
+    }
+
+    public synchronized void removeTorrent(@NonNull String torrentId)
+    {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> e = it.next();
+            if (!e.getKey().torrentId.equals(torrentId))
+                continue;
+            it.remove();
+            removeEntry(e.getValue());
+        }
+    }
+
+    /*
+     * Must be called when a stream that uses the cache is opened
+     */
+
+    public synchronized void onStreamOpened()
+    {
+        ++openStreams;
+    }
+
+    /*
+     * Must be called when a stream that uses the cache is closed.
+     * If it's the last stream, the pooled buffers are released
+     */
+
+    public synchronized void onStreamClosed()
+    {
+        if (openStreams > 0 && --openStreams == 0)
+            trimFreeBuffers();
+    }
+
+    /*
+     * Removes all pieces and releases the buffers (e.g. when the session is stopped)
+     */
+
+    public synchronized void clear()
+    {
+        for (Entry entry : entries.values())
+            removeEntry(entry);
+        entries.clear();
+        trimFreeBuffers();
+    }
+
+    public synchronized Stats getStats()
+    {
+        return new Stats(hits, misses, evictions, entries.size(), size, maxSize);
+    }
+
+    /*
+     * Pieces are a power of two, except the last one, so the buffers
+     * are rounded up to the power of two to be reused by any piece
+     */
+
+    private static int capacityFor(int pieceSize)
+    {
+        int capacity = Integer.highestOneBit(Math.max(pieceSize, 1));
+
+        return (capacity == pieceSize ? capacity : capacity << 1);
+    }
+
+    private ByteBuffer obtainBuffer(int capacity)
+    {
+        if (capacity > maxSize)
+            return null;
+
+        while (true) {
+            ArrayDeque<ByteBuffer> free = freeBuffers.get(capacity);
+            if (free != null && !free.isEmpty())
+                return free.poll();
+
+            if (size + capacity <= maxSize) {
+                size += capacity;
+                return ByteBuffer.allocateDirect(capacity);
+            }
+
+            /* Free buffers of other sizes first, then the least recently used pieces */
+            if (!dropFreeBuffer() && !evictEldest())
+                return null;
+        }
+    }
+
+    private void releaseBuffer(ByteBuffer buf)
+    {
+        if (size > maxSize) {
+            size -= buf.capacity();
+            return;
+        }
+
+        ArrayDeque<ByteBuffer> free = freeBuffers.get(buf.capacity());
+        if (free == null) {
+            free = new ArrayDeque<>();
+            freeBuffers.put(buf.capacity(), free);
+        }
+        free.push(buf);
+    }
+
+    private void trimFreeBuffers()
+    {
+        for (ArrayDeque<ByteBuffer> free : freeBuffers.values()) {
+            for (ByteBuffer buf : free)
+                size -= buf.capacity();
+        }
+        freeBuffers.clear();
+    }
+
+    private boolean dropFreeBuffer()
+    {
+        for (ArrayDeque<ByteBuffer> free : freeBuffers.values()) {
+            ByteBuffer buf = free.poll();
+            if (buf != null) {
+                size -= buf.capacity();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean evictEldest()
+    {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.pins > 0)
+                continue;
+            it.remove();
+            ++evictions;
+            releaseBuffer(entry.buf);
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /*
+     * The buffer isn't pooled, the data of this torrent is no longer needed
+     */
+
+    private void removeEntry(Entry entry)
+    {
+        if (entry.pins > 0)
+            entry.removed = true;
+        else
+            size -= entry.buf.capacity();
+    }
+}
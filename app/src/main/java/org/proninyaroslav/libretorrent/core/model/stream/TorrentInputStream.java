@@ -20,6 +20,8 @@
 
 package org.proninyaroslav.libretorrent.core.model.stream;
 
+import android.os.SystemClock;
+
 import androidx.annotation.NonNull;
 
 import com.sun.jna.Pointer;
@@ -31,6 +33,7 @@ import org.proninyaroslav.libretorrent.core.model.session.TorrentSession;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 /*
@@ -52,14 +55,31 @@ public class TorrentInputStream extends InputStream
 {
     public static final int EOF = -1;
 
+    /* Read-ahead window, in pieces */
+    private static final int MIN_READ_AHEAD = 1;
+    private static final int MAX_READ_AHEAD = 8;
+    /* The window covers this time of consumption at the current rate */
+    private static final long READ_AHEAD_TIME = 3000; /* ms */
+    /* The read request is sent again if no response during this time */
+    private static final long PREFETCH_TIMEOUT = 5000; /* ms */
+
     private TorrentSession session;
     private TorrentStream stream;
     private ReadSession readSession;
     private long filePos, fileStart, eof;
-    private byte[] cacheBuf;
-    private int cachePieceIndex = -1;
+    private final PieceCache cache = PieceCache.getInstance();
     private boolean stopped;
-    private static ReentrantLock lock = new ReentrantLock();
+    /*
+     * Each stream has its own lock, so a stream that waits
+     * for the piece doesn't block the reading of other streams
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private int lastConsumedPiece = -1;
+    private long lastConsumedTime;
+    /* Average time of consuming one piece, or -1 if unknown */
+    private double pieceConsumeTime = -1;
+    /* Read-ahead pieces that aren't received yet, with the request time. Guarded by this */
+    private final HashMap<Integer, Long> prefetching = new HashMap<>();
 
     private class ReadSession
     {
@@ -74,7 +94,11 @@ public class TorrentInputStream extends InputStream
         int readLength;
         int readOffset;
         int bufIndex;
-        boolean cache = false;
+        /*
+         * Other streams of the torrent can read the same piece,
+         * so the piece may be received more than once
+         */
+        boolean received = false;
 
         Piece(int index)
         {
@@ -115,23 +139,35 @@ public class TorrentInputStream extends InputStream
         eof = filePos + stream.fileSize;
 
         session.addListener(listener);
-        task.setInterestedPieces(stream, stream.firstFilePiece, 1);
+        task.setInterestedPieces(this, stream, stream.firstFilePiece, 1);
+        cache.onStreamOpened();
     }
 
     @Override
     protected void finalize() throws Throwable
     {
-        synchronized (this) {
-            stopped = true;
-            if (session != null)
-                session.removeListener(listener);
-            session = null;
-            notifyAll();
-        }
+        release();
 
         super.finalize();
     }
 
+    private synchronized void release()
+    {
+        if (stopped)
+            return;
+
+        stopped = true;
+        if (session != null) {
+            session.removeListener(listener);
+            TorrentDownload task = session.getTask(stream.torrentId);
+            if (task != null)
+                task.removeInterestedPieces(this);
+        }
+        session = null;
+        cache.onStreamClosed();
+        notifyAll();
+    }
+
     private synchronized boolean waitForPiece(TorrentDownload task, int pieceIndex)
     {
         while (!Thread.currentThread().isInterrupted() && !stopped) {
@@ -177,12 +213,6 @@ public class TorrentInputStream extends InputStream
         return pieceSize - (int)(pieceEnd - pos);
     }
 
-    private void readFromCache(Piece piece, byte[] b)
-    {
-        System.arraycopy(cacheBuf, piece.readOffset, b,
-                         piece.bufIndex, piece.readLength);
-    }
-
     /*
      * Returns byte as an int in the range 0 to 255
      */
@@ -192,6 +222,81 @@ public class TorrentInputStream extends InputStream
         return 0x00 << 24 | b & 0xff;
     }
 
+    /*
+     * Returns true if the piece is already requested by the read-ahead,
+     * so the response will be delivered to this read
+     */
+
+    private synchronized boolean addPieceForReading(int i, Piece piece)
+    {
+        readSession.piecesForReading[i] = piece;
+
+        return isPrefetching(piece.index);
+    }
+
+    private boolean isPrefetching(int piece)
+    {
+        Long requestTime = prefetching.get(piece);
+        if (requestTime == null)
+            return false;
+        if (SystemClock.elapsedRealtime() - requestTime > PREFETCH_TIMEOUT) {
+            prefetching.remove(piece);
+            return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * When the reading moves to the next piece, requests the following
+     * downloaded pieces into the cache, so that the disk read doesn't
+     * block the reading at the piece boundary
+     */
+
+    private void readAhead(TorrentDownload task)
+    {
+        int piece = stream.bytesToPieceIndex(filePos - 1);
+        if (piece == lastConsumedPiece)
+            return;
+
+        long now = SystemClock.elapsedRealtime();
+        if (lastConsumedPiece >= 0 && piece == lastConsumedPiece + 1) {
+            long elapsed = now - lastConsumedTime;
+            pieceConsumeTime = (pieceConsumeTime < 0 ?
+                                elapsed :
+                                pieceConsumeTime * 0.75 + elapsed * 0.25);
+        } else {
+            /* Seek, the previous rate is no longer relevant */
+            pieceConsumeTime = -1;
+        }
+        lastConsumedPiece = piece;
+        lastConsumedTime = now;
+
+        int window = readAheadWindow();
+        for (int p = piece + 1; p <= stream.lastFilePiece && p <= piece + window; p++) {
+            if (cache.contains(stream.torrentId, p) || !task.havePiece(p))
+                continue;
+            synchronized (this) {
+                if (isPrefetching(p))
+                    continue;
+                prefetching.put(p, now);
+            }
+            task.readPiece(p);
+        }
+    }
+
+    private int readAheadWindow()
+    {
+        if (pieceConsumeTime < 0)
+            return MIN_READ_AHEAD;
+
+        int window = (int)Math.ceil(READ_AHEAD_TIME / Math.max(pieceConsumeTime, 1));
+        /* Leave the half of the cache for the other streams */
+        long maxWindow = Math.min(MAX_READ_AHEAD, cache.getMaxSize() / 2 / stream.pieceLength);
+
+        return (int)Math.max(MIN_READ_AHEAD, Math.min(window, maxWindow));
+    }
+
     @Override
     public int read() throws IOException
     {
@@ -206,15 +311,13 @@ public class TorrentInputStream extends InputStream
                 throw new IOException("task " + stream.torrentId + " is null");
 
             /* EOF check */
-            if (filePos == eof) {
-                cacheBuf = null;
+            if (filePos == eof)
                 return EOF;
-            }
 
             /* Pieces definition that need to be read */
-            int p = stream.bytesToPieceIndex(filePos + 1);
+            int p = stream.bytesToPieceIndex(filePos);
 
-            task.setInterestedPieces(stream, p, 1);
+            task.setInterestedPieces(this, stream, p, 1);
 
             readSession = new ReadSession();
             readSession.piecesForReading = new Piece[1];
@@ -227,23 +330,24 @@ public class TorrentInputStream extends InputStream
             piece.bufIndex = 0;
 
             /* Check cache */
-            if (p == cachePieceIndex) {
-                readFromCache(piece, readSession.buf);
+            if (cache.read(stream.torrentId, p, piece.readOffset, readSession.buf, 0, 1)) {
                 filePos++;
+                readAhead(task);
 
                 return toUnsignedByte(readSession.buf[0]);
             }
-            piece.cache = true;
-            readSession.piecesForReading[0] = piece;
+            boolean requested = addPieceForReading(0, piece);
 
             if (!waitForPiece(task, p))
                 return EOF;
             /* Async piece reading */
-            task.readPiece(p);
+            if (!requested)
+                task.readPiece(p);
 
             if (!waitForReadPieces())
                 return EOF;
             filePos++;
+            readAhead(task);
 
             return toUnsignedByte(readSession.buf[0]);
 
@@ -272,20 +376,19 @@ public class TorrentInputStream extends InputStream
                 throw new IOException("Task " + stream.torrentId + " is null");
 
             /* EOF check */
-            if (filePos == eof) {
-                cacheBuf = null;
+            if (filePos == eof)
                 return EOF;
-            }
             if (filePos + len > eof)
                 len = (int)(eof - filePos);
 
 
             /* Pieces definition that need to be read */
-            int firstPiece = stream.bytesToPieceIndex(filePos + 1);
-            int lastPiece = stream.bytesToPieceIndex(filePos + len);
+            /* filePos is the offset of the next byte, the last byte is at filePos + len - 1 */
+            int firstPiece = stream.bytesToPieceIndex(filePos);
+            int lastPiece = stream.bytesToPieceIndex(filePos + len - 1);
             int numPieces = lastPiece - firstPiece + 1;
 
-            task.setInterestedPieces(stream, firstPiece, numPieces);
+            task.setInterestedPieces(this, stream, firstPiece, numPieces);
 
             readSession = new ReadSession();
             readSession.piecesForReading = new Piece[numPieces];
@@ -302,7 +405,6 @@ public class TorrentInputStream extends InputStream
 
                 Piece piece = new Piece(p);
                 piece.bufIndex = bufIndex;
-                piece.cache = p == lastPiece;
 
                 if (p == firstPiece)
                     piece.readOffset = filePosToPiecePos(firstPiece, filePos);
@@ -320,28 +422,30 @@ public class TorrentInputStream extends InputStream
                 bufIndex += piece.readLength;
 
                 /* Check cache */
-                if (p == cachePieceIndex) {
-                    readFromCache(piece, b);
-                    /* Exit if there are no other pieces except cached */
-                    if (numPieces == 1) {
-                        filePos += len;
-
-                        return len;
+                if (cache.read(stream.torrentId, p, piece.readOffset, b,
+                               piece.bufIndex, piece.readLength)) {
+                    synchronized (this) {
+                        piece.received = true;
+                        readSession.piecesForReading[i] = piece;
+                        --readSession.countLatch;
                     }
+                    continue;
                 }
 
-                readSession.piecesForReading[i] = piece;
+                boolean requested = addPieceForReading(i, piece);
 
                 if (!waitForPiece(task, p))
                     return EOF;
                 /* Async pieces reading */
-                task.readPiece(p);
+                if (!requested)
+                    task.readPiece(p);
             }
 
             /* Wait for pieces reading */
             if (!waitForReadPieces())
                 return EOF;
             filePos += len;
+            readAhead(task);
 
             return len;
 
@@ -360,13 +464,7 @@ public class TorrentInputStream extends InputStream
     @Override
     public void close() throws IOException
     {
-        synchronized (this) {
-            stopped = true;
-            if (session != null)
-                session.removeListener(listener);
-            session = null;
-            notifyAll();
-        }
+        release();
 
         super.close();
     }
@@ -388,10 +486,10 @@ public class TorrentInputStream extends InputStream
 
             filePos += n;
 
-            if (session != null) {
+            if (session != null && filePos < eof) {
                 TorrentDownload task = session.getTask(stream.torrentId);
                 if (task != null)
-                    task.setInterestedPieces(stream, stream.bytesToPieceIndex(filePos + 1), 1);
+                    task.setInterestedPieces(this, stream, stream.bytesToPieceIndex(filePos), 1);
             }
 
             return n;
@@ -435,37 +533,44 @@ public class TorrentInputStream extends InputStream
 
     private synchronized void readPiece(ReadPieceInfo info)
     {
-        if (readSession == null)
+        boolean prefetched = prefetching.remove(info.piece) != null;
+        Piece piece = findPieceForReading(info.piece);
+        if (piece == null && !prefetched)
             return;
 
-        Piece piece = null;
-        for (Piece p : readSession.piecesForReading) {
-            if (p.index == info.piece) {
-                piece = p;
-                break;
-            }
-        }
-        if (readSession.countLatch > 0 && piece != null && readSession.buf != null) {
-            try {
-                if (info.err != null) {
+        try {
+            if (info.err != null) {
+                if (piece != null && session != null) {
                     TorrentDownload task = session.getTask(stream.torrentId);
                     if (task != null)
                         task.resume();
-                    return;
                 }
-                Pointer ptr = new Pointer(info.bufferPtr);
-                if (piece.cache) {
-                    cacheBuf = new byte[info.size];
-                    ptr.read(0, cacheBuf, 0, info.size);
-                    cachePieceIndex = piece.index;
-                    readFromCache(piece, readSession.buf);
-                } else {
-                    ptr.read(piece.readOffset, readSession.buf, piece.bufIndex, piece.readLength);
-                }
-            } finally {
+                return;
+            }
+            Pointer ptr = new Pointer(info.bufferPtr);
+            cache.put(stream.torrentId, info.piece, ptr.getByteBuffer(0, info.size));
+            if (piece != null)
+                ptr.read(piece.readOffset, readSession.buf, piece.bufIndex, piece.readLength);
+        } finally {
+            if (piece != null) {
+                piece.received = true;
                 --readSession.countLatch;
                 notifyAll();
             }
         }
     }
-}
\ No newline at end of file
+
+    private Piece findPieceForReading(int index)
+    {
+        if (readSession == null || readSession.countLatch <= 0 || readSession.buf == null)
+            return null;
+
+        for (Piece p : readSession.piecesForReading) {
+            /* Pieces are added to the session as they are requested */
+            if (p != null && p.index == index)
+                return (p.received ? null : p);
+        }
+
+        return null;
+    }
+}
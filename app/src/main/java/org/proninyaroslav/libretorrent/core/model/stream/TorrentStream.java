@@ -31,18 +31,21 @@ public class TorrentStream implements Parcelable
     public String id;
     public String torrentId;
     public int selectedFileIndex;
+    /* Relative to the download directory */
+    public String filePath;
     public int firstFilePiece, lastFilePiece;
     /* The last piece may be smaller than the rest */
     public int lastFilePieceSize;
     public long fileOffset, fileSize;
     public int pieceLength;
 
-    public TorrentStream(String torrentId, int selectedFileIndex, int firstFilePiece,
-                         int lastFilePiece, int pieceLength, long fileOffset,
-                         long fileSize, int lastFilePieceSize)
+    public TorrentStream(String torrentId, int selectedFileIndex, String filePath,
+                         int firstFilePiece, int lastFilePiece, int pieceLength,
+                         long fileOffset, long fileSize, int lastFilePieceSize)
     {
         this.id = Utils.makeSha1Hash(torrentId + selectedFileIndex);
         this.torrentId = torrentId;
+        this.filePath = filePath;
         this.lastFilePiece = lastFilePiece;
         this.firstFilePiece = firstFilePiece;
         this.pieceLength = pieceLength;
@@ -57,6 +60,7 @@ public class TorrentStream implements Parcelable
         id = source.readString();
         torrentId = source.readString();
         selectedFileIndex = source.readInt();
+        filePath = source.readString();
         firstFilePiece = source.readInt();
         lastFilePiece = source.readInt();
         lastFilePieceSize = source.readInt();
@@ -70,6 +74,15 @@ public class TorrentStream implements Parcelable
         return firstFilePiece + (int)(bytes / pieceLength);
     }
 
+    /*
+     * Returns the piece that contains the byte at the offset from the file start
+     */
+
+    public int fileOffsetToPieceIndex(long offset)
+    {
+        return (int)((fileOffset + offset) / pieceLength);
+    }
+
     @Override
     public int describeContents()
     {
@@ -82,6 +95,7 @@ public class TorrentStream implements Parcelable
         dest.writeString(id);
         dest.writeString(torrentId);
         dest.writeInt(selectedFileIndex);
+        dest.writeString(filePath);
         dest.writeInt(firstFilePiece);
         dest.writeInt(lastFilePiece);
         dest.writeInt(lastFilePieceSize);
@@ -126,6 +140,7 @@ public class TorrentStream implements Parcelable
                 "id='" + id + '\'' +
                 ", torrentId='" + torrentId + '\'' +
                 ", selectedFileIndex=" + selectedFileIndex +
+                ", filePath='" + filePath + '\'' +
                 ", firstFilePiece=" + firstFilePiece +
                 ", lastFilePiece=" + lastFilePiece +
                 ", lastFilePieceSize=" + lastFilePieceSize +
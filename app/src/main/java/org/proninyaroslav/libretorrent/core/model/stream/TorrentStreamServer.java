@@ -28,6 +28,7 @@ import org.nanohttpd.NanoHTTPD;
 import org.proninyaroslav.libretorrent.core.model.TorrentEngine;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
@@ -203,8 +204,7 @@ public class TorrentStreamServer extends NanoHTTPD
                     if (newLen < 0)
                         newLen = 0;
 
-                    TorrentInputStream is = engine.getTorrentInputStream(stream);
-                    is.skip(startFrom);
+                    InputStream is = openStream(stream, startFrom, endAt);
 
                     res = newFixedLengthResponse(PARTIAL_CONTENT, MIME_OCTET_STREAM, is, newLen);
                     res.addHeader("Accept-Ranges", "bytes");
@@ -240,7 +240,7 @@ public class TorrentStreamServer extends NanoHTTPD
                     res.addHeader("ETag", etag);
 
                 } else {
-                    TorrentInputStream is = engine.getTorrentInputStream(stream);
+                    InputStream is = openStream(stream, 0, stream.fileSize - 1);
                     res = newFixedLengthResponse(OK, MIME_OCTET_STREAM, is, stream.fileSize);
                     res.addHeader("Accept-Ranges", "bytes");
                     res.addHeader("Content-Length", "" + stream.fileSize);
@@ -257,6 +257,23 @@ public class TorrentStreamServer extends NanoHTTPD
         }
     }
 
+    /*
+     * The downloaded range is read straight from the file, bypassing
+     * the piece reading through libtorrent
+     */
+
+    private InputStream openStream(TorrentStream stream, long start, long end)
+    {
+        InputStream is = engine.openDownloadedRange(stream, start, end);
+        if (is != null)
+            return is;
+
+        TorrentInputStream torrentStream = engine.getTorrentInputStream(stream);
+        torrentStream.skip(start);
+
+        return torrentStream;
+    }
+
     static class DLNAFileType
     {
         public final String dlnaContentFeatures;
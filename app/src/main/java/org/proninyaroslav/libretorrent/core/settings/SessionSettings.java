@@ -71,6 +71,10 @@ public class SessionSettings
     public static final boolean DEFAULT_USE_RANDOM_PORT = true;
     public static final boolean DEFAULT_VALIDATE_HTTPS_TRACKERS = true;
     public static final boolean DEFAULT_POSIX_DISK_IO = false;
+    /* Number of torrents that are restored at the same time */
+    public static final int DEFAULT_RESTORE_PARALLELISM = 4;
+    /* Number of events that each alert dispatch stage can queue, applied on session start */
+    public static final int DEFAULT_ALERT_DISPATCH_QUEUE_DEPTH = 1000;
 
     public int activeDownloads = DEFAULT_ACTIVE_DOWNLOADS;
     public int activeSeeds = DEFAULT_ACTIVE_SEEDS;
@@ -115,6 +119,8 @@ public class SessionSettings
     public String[] defaultTrackersList = new String[]{};
     public boolean validateHttpsTrackers = DEFAULT_VALIDATE_HTTPS_TRACKERS;
     public boolean posixDiskIo = DEFAULT_POSIX_DISK_IO;
+    public int restoreParallelism = DEFAULT_RESTORE_PARALLELISM;
+    public int alertDispatchQueueDepth = DEFAULT_ALERT_DISPATCH_QUEUE_DEPTH;
 
     public SessionSettings() {}
 
@@ -163,6 +169,8 @@ public class SessionSettings
         this.defaultTrackersList = other.defaultTrackersList;
         this.validateHttpsTrackers = other.validateHttpsTrackers;
         this.posixDiskIo = other.posixDiskIo;
+        this.restoreParallelism = other.restoreParallelism;
+        this.alertDispatchQueueDepth = other.alertDispatchQueueDepth;
     }
 
     public enum EncryptMode
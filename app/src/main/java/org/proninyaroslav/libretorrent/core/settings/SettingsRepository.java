@@ -387,6 +387,11 @@ public interface SettingsRepository
 
     void streamingPort(int val);
 
+    /* In MiB */
+    int streamingCacheSize();
+
+    void streamingCacheSize(int val);
+
     /*
      * Logging settings
      */
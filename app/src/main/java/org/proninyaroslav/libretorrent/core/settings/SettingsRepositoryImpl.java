@@ -29,6 +29,7 @@ import androidx.core.content.ContextCompat;
 import androidx.preference.PreferenceManager;
 
 import org.proninyaroslav.libretorrent.R;
+import org.proninyaroslav.libretorrent.core.model.stream.PieceCache;
 import org.proninyaroslav.libretorrent.core.system.FileSystemFacade;
 import org.proninyaroslav.libretorrent.core.system.SystemFacadeHelper;
 import org.proninyaroslav.libretorrent.core.utils.Utils;
@@ -154,6 +155,7 @@ public class SettingsRepositoryImpl implements SettingsRepository
         static final boolean enableStreaming = true;
         static final String streamingHostname = "127.0.0.1";
         static final int streamingPort = 8800;
+        static final int streamingCacheSize = (int)(PieceCache.DEFAULT_MAX_SIZE / (1024 * 1024));
         /* Logging settings */
         static final boolean logging = SessionSettings.DEFAULT_LOGGING;
         static final int maxLogSize = SessionSettings.DEFAULT_MAX_LOG_SIZE;
@@ -1456,6 +1458,21 @@ public class SettingsRepositoryImpl implements SettingsRepository
                 .apply();
     }
 
+    @Override
+    public int streamingCacheSize()
+    {
+        return pref.getInt(appContext.getString(R.string.pref_key_streaming_cache_size),
+                Default.streamingCacheSize);
+    }
+
+    @Override
+    public void streamingCacheSize(int val)
+    {
+        pref.edit()
+                .putInt(appContext.getString(R.string.pref_key_streaming_cache_size), val)
+                .apply();
+    }
+
     @Override
     public boolean logging()
     {
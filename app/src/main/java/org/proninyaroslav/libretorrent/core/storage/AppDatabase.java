@@ -48,7 +48,7 @@ import org.proninyaroslav.libretorrent.core.storage.dao.TorrentDao;
                 TagInfo.class,
                 TorrentTagInfo.class,
         },
-        version = 9
+        version = 10
 )
 @TypeConverters({UriConverter.class})
 
@@ -20,19 +20,40 @@
 package org.proninyaroslav.libretorrent.core.storage;
 
 import androidx.annotation.NonNull;
+import androidx.room.InvalidationTracker;
 
 import org.proninyaroslav.libretorrent.core.model.data.entity.TagInfo;
+import org.proninyaroslav.libretorrent.core.storage.dao.TagInfoDao;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.reactivex.Flowable;
 import io.reactivex.Single;
 
 public class TagRepositoryImpl implements TagRepository {
     private final @NonNull AppDatabase db;
+    /* Torrent id -> tags, built on demand and dropped on any tag change */
+    private volatile Map<String, List<TagInfo>> torrentTagsIndex;
+    private final AtomicLong torrentTagsVersion = new AtomicLong();
 
     public TagRepositoryImpl(@NonNull AppDatabase db) {
         this.db = db;
+
+        db.getInvalidationTracker().addObserver(
+                new InvalidationTracker.Observer("TagInfo", "TorrentTagInfo") {
+                    @Override
+                    public void onInvalidated(@NonNull Set<String> tables) {
+                        torrentTagsVersion.incrementAndGet();
+                        torrentTagsIndex = null;
+                    }
+                }
+        );
     }
 
     @Override
@@ -74,4 +95,30 @@ public class TagRepositoryImpl implements TagRepository {
     public List<TagInfo> getByTorrentId(String torrentId) {
         return db.tagInfoDao().getByTorrentId(torrentId);
     }
+
+    @Override
+    public Map<String, List<TagInfo>> getAllTorrentTags() {
+        Map<String, List<TagInfo>> index = torrentTagsIndex;
+        if (index != null) {
+            return index;
+        }
+
+        long version = torrentTagsVersion.get();
+        HashMap<String, List<TagInfo>> newIndex = new HashMap<>();
+        for (TagInfoDao.TorrentTag t : db.tagInfoDao().getAllTorrentTags()) {
+            List<TagInfo> tags = newIndex.get(t.torrentId);
+            if (tags == null) {
+                tags = new ArrayList<>();
+                newIndex.put(t.torrentId, tags);
+            }
+            tags.add(t.tag);
+        }
+        index = Collections.unmodifiableMap(newIndex);
+        /* Don't cache the index if the tags were changed during the query */
+        if (torrentTagsVersion.get() == version) {
+            torrentTagsIndex = index;
+        }
+
+        return index;
+    }
 }
@@ -27,20 +27,66 @@ import org.proninyaroslav.libretorrent.core.model.data.entity.Torrent;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import io.reactivex.Flowable;
 import io.reactivex.Single;
 
 public interface TorrentRepository
 {
+    class CacheStats
+    {
+        public final long hits;
+        public final long misses;
+        public final int size;
+
+        public CacheStats(long hits, long misses, int size)
+        {
+            this.hits = hits;
+            this.misses = misses;
+            this.size = size;
+        }
+
+        public double hitRate()
+        {
+            long total = hits + misses;
+
+            return (total == 0 ? 0 : (double)hits / total);
+        }
+
+        @NonNull
+        @Override
+        public String toString()
+        {
+            return "CacheStats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", size=" + size +
+                    ", hitRate=" + hitRate() +
+                    '}';
+        }
+    }
+
     void addTorrent(@NonNull Torrent torrent);
 
+    /*
+     * Adds torrents and their tags in one transaction
+     */
+
+    void addTorrents(@NonNull List<Torrent> torrents, @NonNull Map<String, List<TagInfo>> tags);
+
     void updateTorrent(@NonNull Torrent torrent);
 
     void deleteTorrent(@NonNull Torrent torrent);
 
     Torrent getTorrentById(@NonNull String id);
 
+    /*
+     * Statistics of the in-memory cache used by getTorrentById()
+     */
+
+    CacheStats getCacheStats();
+
     Single<Torrent> getTorrentByIdSingle(@NonNull String id);
 
     Flowable<Torrent> observeTorrentById(@NonNull String id);
@@ -49,8 +95,21 @@ public interface TorrentRepository
 
     void addFastResume(@NonNull FastResume fastResume);
 
+    /*
+     * Writes resume data of several torrents in one transaction
+     */
+
+    void addFastResumes(@NonNull List<FastResume> fastResumes);
+
     FastResume getFastResumeById(@NonNull String torrentId);
 
+    /*
+     * Loads resume data of several torrents with one query.
+     * The list should be small enough (e.g. a chunk of the torrents)
+     */
+
+    List<FastResume> getFastResumeByIds(@NonNull List<String> torrentIds);
+
     void saveSession(@NonNull byte[] data) throws IOException;
 
     String getSessionFile();
@@ -32,7 +32,11 @@ import org.proninyaroslav.libretorrent.core.system.SystemFacadeHelper;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.reactivex.Flowable;
 import io.reactivex.Single;
@@ -46,6 +50,18 @@ public class TorrentRepositoryImpl implements TorrentRepository {
 
     private Context appContext;
     private AppDatabase db;
+    /*
+     * Write-through cache of the torrent table, in the table row order. Stores copies of
+     * the objects, since the callers are free to modify the returned objects.
+     * Guarded by cacheLock
+     */
+    private final LinkedHashMap<String, Torrent> cache = new LinkedHashMap<>();
+    /* Ids that aren't in the table, so that repeated lookups don't query it */
+    private final HashSet<String> missingIds = new HashSet<>();
+    private final Object cacheLock = new Object();
+    private volatile boolean cacheLoaded = false;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
 
     public TorrentRepositoryImpl(@NonNull Context appContext, @NonNull AppDatabase db) {
         this.appContext = appContext;
@@ -54,22 +70,101 @@ public class TorrentRepositoryImpl implements TorrentRepository {
 
     @Override
     public void addTorrent(@NonNull Torrent torrent) {
-        db.torrentDao().add(torrent);
+        synchronized (cacheLock) {
+            db.torrentDao().add(torrent);
+            cache.put(torrent.id, new Torrent(torrent));
+            missingIds.remove(torrent.id);
+        }
+    }
+
+    @Override
+    public void addTorrents(@NonNull List<Torrent> torrents, @NonNull Map<String, List<TagInfo>> tags) {
+        ArrayList<TorrentTagInfo> tagInfoList = new ArrayList<>();
+        for (Map.Entry<String, List<TagInfo>> entry : tags.entrySet()) {
+            for (TagInfo tag : entry.getValue()) {
+                tagInfoList.add(new TorrentTagInfo(tag.id, entry.getKey()));
+            }
+        }
+
+        synchronized (cacheLock) {
+            db.torrentDao().addAllWithTags(torrents, tagInfoList);
+            for (Torrent torrent : torrents) {
+                cache.put(torrent.id, new Torrent(torrent));
+                missingIds.remove(torrent.id);
+            }
+        }
     }
 
     @Override
     public void updateTorrent(@NonNull Torrent torrent) {
-        db.torrentDao().update(torrent);
+        synchronized (cacheLock) {
+            db.torrentDao().update(torrent);
+            if (cache.containsKey(torrent.id)) {
+                cache.put(torrent.id, new Torrent(torrent));
+            }
+        }
     }
 
     @Override
     public void deleteTorrent(@NonNull Torrent torrent) {
-        db.torrentDao().delete(torrent);
+        synchronized (cacheLock) {
+            db.torrentDao().delete(torrent);
+            cache.remove(torrent.id);
+        }
     }
 
     @Override
     public Torrent getTorrentById(@NonNull String id) {
-        return db.torrentDao().getTorrentById(id);
+        if (!cacheLoaded) {
+            loadCache();
+        }
+
+        Torrent torrent;
+        synchronized (cacheLock) {
+            torrent = cache.get(id);
+            if (torrent != null) {
+                cacheHits.incrementAndGet();
+                return new Torrent(torrent);
+            }
+            if (missingIds.contains(id)) {
+                cacheHits.incrementAndGet();
+                return null;
+            }
+
+            cacheMisses.incrementAndGet();
+            torrent = db.torrentDao().getTorrentById(id);
+            if (torrent != null) {
+                cache.put(id, new Torrent(torrent));
+            } else {
+                missingIds.add(id);
+            }
+        }
+
+        return torrent;
+    }
+
+    private void loadCache() {
+        synchronized (cacheLock) {
+            if (cacheLoaded) {
+                return;
+            }
+            /* Follow the table row order */
+            cache.clear();
+            for (Torrent torrent : db.torrentDao().getAllTorrents()) {
+                cache.put(torrent.id, new Torrent(torrent));
+            }
+            cacheLoaded = true;
+        }
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        int size;
+        synchronized (cacheLock) {
+            size = cache.size();
+        }
+
+        return new CacheStats(cacheHits.get(), cacheMisses.get(), size);
     }
 
     @Override
@@ -84,7 +179,19 @@ public class TorrentRepositoryImpl implements TorrentRepository {
 
     @Override
     public List<Torrent> getAllTorrents() {
-        return db.torrentDao().getAllTorrents();
+        if (!cacheLoaded) {
+            loadCache();
+        }
+
+        ArrayList<Torrent> torrents;
+        synchronized (cacheLock) {
+            torrents = new ArrayList<>(cache.size());
+            for (Torrent torrent : cache.values()) {
+                torrents.add(new Torrent(torrent));
+            }
+        }
+
+        return torrents;
     }
 
     @Override
@@ -92,11 +199,21 @@ public class TorrentRepositoryImpl implements TorrentRepository {
         db.fastResumeDao().add(fastResume);
     }
 
+    @Override
+    public void addFastResumes(@NonNull List<FastResume> fastResumes) {
+        db.fastResumeDao().addAll(fastResumes);
+    }
+
     @Override
     public FastResume getFastResumeById(@NonNull String torrentId) {
         return db.fastResumeDao().getByTorrentId(torrentId);
     }
 
+    @Override
+    public List<FastResume> getFastResumeByIds(@NonNull List<String> torrentIds) {
+        return db.fastResumeDao().getByTorrentIds(torrentIds);
+    }
+
     @Override
     public void saveSession(@NonNull byte[] data) throws IOException {
         String dataDir = appContext.getExternalFilesDir(null).getAbsolutePath();
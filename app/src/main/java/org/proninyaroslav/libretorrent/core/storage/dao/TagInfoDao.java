@@ -21,6 +21,7 @@ package org.proninyaroslav.libretorrent.core.storage.dao;
 
 import androidx.room.Dao;
 import androidx.room.Delete;
+import androidx.room.Embedded;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
@@ -61,4 +62,14 @@ public interface TagInfoDao {
     @Query("SELECT * FROM TagInfo WHERE id IN " +
             "(SELECT tagId FROM TorrentTagInfo WHERE torrentId = :torrentId)")
     List<TagInfo> getByTorrentId(String torrentId);
+
+    @Query("SELECT TorrentTagInfo.torrentId, TagInfo.* FROM TorrentTagInfo " +
+            "INNER JOIN TagInfo ON TagInfo.id = TorrentTagInfo.tagId")
+    List<TorrentTag> getAllTorrentTags();
+
+    class TorrentTag {
+        public String torrentId;
+        @Embedded
+        public TagInfo tag;
+    }
 }
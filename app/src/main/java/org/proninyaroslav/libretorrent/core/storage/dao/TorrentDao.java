@@ -39,6 +39,9 @@ public abstract class TorrentDao {
     @Insert
     public abstract void add(Torrent torrent);
 
+    @Insert
+    public abstract void addAll(List<Torrent> torrents);
+
     @Update
     public abstract void update(Torrent torrent);
 
@@ -69,6 +72,12 @@ public abstract class TorrentDao {
         addTags(infoList);
     }
 
+    @Transaction
+    public void addAllWithTags(List<Torrent> torrents, List<TorrentTagInfo> infoList) {
+        addAll(torrents);
+        addTags(infoList);
+    }
+
     @Insert
     public abstract void addTag(TorrentTagInfo info);
 
@@ -36,9 +36,11 @@ import androidx.core.app.NotificationCompat;
 import org.proninyaroslav.libretorrent.R;
 import org.proninyaroslav.libretorrent.core.RepositoryHelper;
 import org.proninyaroslav.libretorrent.core.filter.TorrentFilter;
+import org.proninyaroslav.libretorrent.core.model.IncrementalTorrentList;
 import org.proninyaroslav.libretorrent.core.model.TorrentEngine;
 import org.proninyaroslav.libretorrent.core.model.TorrentEngineListener;
 import org.proninyaroslav.libretorrent.core.model.TorrentInfoProvider;
+import org.proninyaroslav.libretorrent.core.model.data.ShutdownProgress;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentInfo;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentStateCode;
 import org.proninyaroslav.libretorrent.core.settings.SettingsRepository;
@@ -54,7 +56,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.reactivex.Completable;
-import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
@@ -87,6 +88,7 @@ public class TorrentService extends Service
     private PublishSubject<Boolean> forceSortAndFilter = PublishSubject.create();
     private TorrentFilter itemsFilter;
     private TorrentSortingComparator itemsSorting;
+    private IncrementalTorrentList<TorrentInfo> itemsList = new IncrementalTorrentList<>((info) -> info);
     private BehaviorSubject<Boolean> combinedPauseButtonState =
             BehaviorSubject.createDefault(false);
 
@@ -137,6 +139,7 @@ public class TorrentService extends Service
     private void setFilterAndSorting() {
         itemsFilter = Utils.getForegroundNotifyFilter(this, pref);
         itemsSorting = Utils.getForegroundNotifySorting(this, pref);
+        itemsList.invalidate();
     }
 
     @Override
@@ -158,6 +161,12 @@ public class TorrentService extends Service
     {
         shuttingDown.set(true);
         forceClearForeground();
+        disposables.add(engine.observeShutdownProgress()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(this::updateShutdownProgress,
+                        (Throwable t) -> Log.e(TAG, "Getting shutdown progress error: "
+                                + Log.getStackTraceString(t))
+                ));
         engine.doStop();
     }
 
@@ -279,14 +288,9 @@ public class TorrentService extends Service
         if (shuttingDown.get() || foregroundNotify == null)
             return;
 
-        foregroundDisposable = stateProvider.observeInfoList()
+        foregroundDisposable = stateProvider.observeInfoListChanges()
                 .subscribeOn(Schedulers.io())
-                .flatMapSingle((infoList) ->
-                        Flowable.fromIterable(infoList)
-                                .filter(itemsFilter)
-                                .sorted(itemsSorting)
-                                .toList()
-                )
+                .map((changes) -> itemsList.apply(changes, itemsFilter, itemsSorting))
                 .observeOn(AndroidSchedulers.mainThread())
                 .delay(FOREGROUND_NOTIFY_UPDATE_DELAY, TimeUnit.MILLISECONDS)
                 .subscribe(this::updateForegroundNotify,
@@ -395,6 +399,19 @@ public class TorrentService extends Service
         startForeground(SERVICE_STARTED_NOTIFICATION_ID, foregroundNotify.build());
     }
 
+    private void updateShutdownProgress(ShutdownProgress progress)
+    {
+        if (!shuttingDown.get() || foregroundNotify == null || progress.total == 0)
+            return;
+
+        foregroundNotify.setStyle(null);
+        foregroundNotify.setContentText(getString(R.string.notify_shutting_down_progress,
+                progress.saved, progress.total));
+        foregroundNotify.setProgress(progress.total, progress.saved, false);
+        /* Disallow killing the service process by system */
+        startForeground(SERVICE_STARTED_NOTIFICATION_ID, foregroundNotify.build());
+    }
+
     private NotificationCompat.InboxStyle makeDetailNotifyInboxStyle(List<TorrentInfo> stateList)
     {
         NotificationCompat.InboxStyle inboxStyle = new NotificationCompat.InboxStyle();
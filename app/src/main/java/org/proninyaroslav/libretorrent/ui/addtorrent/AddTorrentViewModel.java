@@ -47,6 +47,7 @@ import org.proninyaroslav.libretorrent.core.model.data.MagnetInfo;
 import org.proninyaroslav.libretorrent.core.model.data.Priority;
 import org.proninyaroslav.libretorrent.core.model.data.entity.TagInfo;
 import org.proninyaroslav.libretorrent.core.model.data.metainfo.BencodeFileItem;
+import org.proninyaroslav.libretorrent.core.model.data.metainfo.TorrentInfoDecoder;
 import org.proninyaroslav.libretorrent.core.model.data.metainfo.TorrentMetaInfo;
 import org.proninyaroslav.libretorrent.core.model.filetree.BencodeFileTree;
 import org.proninyaroslav.libretorrent.core.model.filetree.FileNode;
@@ -85,6 +86,11 @@ public class AddTorrentViewModel extends AndroidViewModel {
     private TorrentEngine engine;
     private SettingsRepository pref;
     private TorrentDecodeTask decodeTask;
+    /*
+     * The decoded torrent file, passed to the engine on adding so that
+     * it isn't decoded again. Released when the dialog is closed
+     */
+    private volatile org.libtorrent4j.TorrentInfo torrentInfo;
     /* BEP53 standard. Optional field */
     private ArrayList<Priority> magnetPriorities;
     private CompositeDisposable disposable = new CompositeDisposable();
@@ -175,6 +181,7 @@ public class AddTorrentViewModel extends AndroidViewModel {
     @Override
     protected void onCleared() {
         disposable.clear();
+        torrentInfo = null;
         info.removeOnPropertyChangedCallback(infoCallback);
         mutableParams.getDirPath().removeOnPropertyChangedCallback(dirPathCallback);
     }
@@ -290,7 +297,9 @@ public class AddTorrentViewModel extends AndroidViewModel {
                 }
                 FileDescriptor outFd = outPfd.getFileDescriptor();
                 try (FileInputStream is = new FileInputStream(outFd)) {
-                    v.info.set(new TorrentMetaInfo(is));
+                    org.libtorrent4j.TorrentInfo ti = TorrentInfoDecoder.decode(is);
+                    v.torrentInfo = ti;
+                    v.info.set(new TorrentMetaInfo(ti));
                 }
             } catch (FileNotFoundException e) {
                 throw new FileNotFoundException(uri.toString() + ": " + e.getMessage());
@@ -519,6 +528,8 @@ public class AddTorrentViewModel extends AndroidViewModel {
                 tags,
                 mutableParams.isFirstLastPiecePriority()
         );
+        if (!fromMagnet)
+            params.torrentInfo = torrentInfo;
 
         /* TODO: maybe rewrite to WorkManager */
         /* Sync wait inserting */
@@ -541,6 +552,7 @@ public class AddTorrentViewModel extends AndroidViewModel {
 
         if (err[0] != null)
             throw err[0];
+        torrentInfo = null;
 
         return true;
     }
@@ -558,6 +570,7 @@ public class AddTorrentViewModel extends AndroidViewModel {
     public void finish() {
         if (decodeTask != null)
             decodeTask.cancel(true);
+        torrentInfo = null;
 
         cancelFetchMagnet();
     }
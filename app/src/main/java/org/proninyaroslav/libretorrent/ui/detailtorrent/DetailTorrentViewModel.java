@@ -40,6 +40,7 @@ import org.proninyaroslav.libretorrent.core.model.TorrentEngine;
 import org.proninyaroslav.libretorrent.core.model.TorrentInfoProvider;
 import org.proninyaroslav.libretorrent.core.model.data.AdvancedTorrentInfo;
 import org.proninyaroslav.libretorrent.core.model.data.PeerInfo;
+import org.proninyaroslav.libretorrent.core.model.data.PieceBitfield;
 import org.proninyaroslav.libretorrent.core.model.data.Priority;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentInfo;
 import org.proninyaroslav.libretorrent.core.model.data.TrackerInfo;
@@ -184,7 +185,7 @@ public class DetailTorrentViewModel extends AndroidViewModel {
         return infoProvider.observePeersInfo(torrentId);
     }
 
-    public Flowable<boolean[]> observePieces() {
+    public Flowable<PieceBitfield> observePieces() {
         return infoProvider.observePiecesInfo(torrentId);
     }
 
@@ -30,10 +30,9 @@ import android.view.View;
 import androidx.annotation.NonNull;
 
 import org.proninyaroslav.libretorrent.R;
+import org.proninyaroslav.libretorrent.core.model.data.PieceBitfield;
 import org.proninyaroslav.libretorrent.core.utils.Utils;
 
-import java.util.Arrays;
-
 /*
  * A widget for display parts map.
  */
@@ -43,7 +42,7 @@ public class PiecesView extends View
     private static final float CELL_SIZE_DP = 20f;
     private static final float BORDER_SIZE_DP  = 1f;
 
-    private boolean[] pieces;
+    private PieceBitfield pieces;
     private int cells = 0;
     private int cellSize;
     private int borderSize;
@@ -86,15 +85,15 @@ public class PiecesView extends View
         a.recycle();
     }
 
-    public void setPieces(boolean[] pieces)
+    public void setPieces(PieceBitfield pieces)
     {
-        if (pieces == null || Arrays.equals(this.pieces, pieces))
+        if (pieces == null || pieces.equals(this.pieces))
             return;
 
-        int prevLength = (this.pieces != null ? this.pieces.length : 0);
-        cells = pieces.length;
+        int prevLength = (this.pieces != null ? this.pieces.size() : 0);
+        cells = pieces.size();
         this.pieces = pieces;
-        if (prevLength == pieces.length)
+        if (prevLength == pieces.size())
             invalidate();
         else
             requestLayout();
@@ -125,8 +124,8 @@ public class PiecesView extends View
 
         int position = 0;
         for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < cols && position < pieces.length; c++) {
-                Paint paint = (pieces[position] ? complete : empty);
+            for (int c = 0; c < cols && position < cells; c++) {
+                Paint paint = (pieces.get(position) ? complete : empty);
                 int left = c * stepSize + borderSize + margin;
                 int right = left + stepSize - borderSize * 2;
                 int top = r * stepSize + borderSize;
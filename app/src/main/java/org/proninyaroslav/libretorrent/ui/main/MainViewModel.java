@@ -29,6 +29,7 @@ import androidx.lifecycle.AndroidViewModel;
 import org.proninyaroslav.libretorrent.core.RepositoryHelper;
 import org.proninyaroslav.libretorrent.core.filter.TorrentFilter;
 import org.proninyaroslav.libretorrent.core.filter.TorrentFilterCollection;
+import org.proninyaroslav.libretorrent.core.model.IncrementalTorrentList;
 import org.proninyaroslav.libretorrent.core.model.TorrentEngine;
 import org.proninyaroslav.libretorrent.core.model.TorrentInfoProvider;
 import org.proninyaroslav.libretorrent.core.model.data.TorrentInfo;
@@ -54,6 +55,8 @@ public class MainViewModel extends AndroidViewModel {
     private TorrentFilter dateAddedFilter = TorrentFilterCollection.all();
     private TorrentFilter tagFilter = TorrentFilterCollection.all();
     private PublishSubject<Boolean> forceSortAndFilter = PublishSubject.create();
+    private IncrementalTorrentList<TorrentListItem> torrentList =
+            new IncrementalTorrentList<>(TorrentListItem::new);
     private TagRepository tagRepo;
 
     private String searchQuery;
@@ -78,6 +81,15 @@ public class MainViewModel extends AndroidViewModel {
         return stateProvider.observeInfoList();
     }
 
+    /*
+     * Filtered and sorted list, updated only with the changed torrents
+     */
+
+    public Flowable<List<TorrentListItem>> observeTorrentListItems() {
+        return stateProvider.observeInfoListChanges()
+                .map((changes) -> torrentList.apply(changes, getFilter(), sorting));
+    }
+
     public Single<List<TorrentInfo>> getAllTorrentsInfoSingle() {
         return stateProvider.getInfoListSingle();
     }
@@ -88,6 +100,7 @@ public class MainViewModel extends AndroidViewModel {
 
     public void setSort(@NonNull TorrentSortingComparator sorting, boolean force) {
         this.sorting = sorting;
+        torrentList.invalidate();
         if (force && !sorting.getSorting().getColumnName().equals(TorrentSorting.SortingColumns.none.name()))
             forceSortAndFilter.onNext(true);
     }
@@ -98,18 +111,21 @@ public class MainViewModel extends AndroidViewModel {
 
     public void setStatusFilter(@NonNull TorrentFilter statusFilter, boolean force) {
         this.statusFilter = statusFilter;
+        torrentList.invalidate();
         if (force)
             forceSortAndFilter.onNext(true);
     }
 
     public void setDateAddedFilter(@NonNull TorrentFilter dateAddedFilter, boolean force) {
         this.dateAddedFilter = dateAddedFilter;
+        torrentList.invalidate();
         if (force)
             forceSortAndFilter.onNext(true);
     }
 
     public void setTagFilter(@NonNull TorrentFilter tagFilter, boolean force) {
         this.tagFilter = tagFilter;
+        torrentList.invalidate();
         if (force) {
             forceSortAndFilter.onNext(true);
         }
@@ -124,6 +140,7 @@ public class MainViewModel extends AndroidViewModel {
 
     public void setSearchQuery(@Nullable String searchQuery) {
         this.searchQuery = searchQuery;
+        torrentList.invalidate();
         forceSortAndFilter.onNext(true);
     }
 
@@ -82,6 +82,22 @@ public class StreamingSettingsFragment extends PreferenceFragmentCompat
             port.setText(portValue);
             bindOnPreferenceChangeListener(port);
         }
+
+        String keyCacheSize = getString(R.string.pref_key_streaming_cache_size);
+        EditTextPreference cacheSize = findPreference(keyCacheSize);
+        if (cacheSize != null) {
+            InputFilter[] cacheSizeFilter = new InputFilter[] {
+                    new InputFilterRange.Builder()
+                            .setMin(1)
+                            .setMax(Integer.MAX_VALUE)
+                            .build()
+            };
+            String value = Integer.toString(pref.streamingCacheSize());
+            cacheSize.setOnBindEditTextListener((editText) -> editText.setFilters(cacheSizeFilter));
+            cacheSize.setSummary(value);
+            cacheSize.setText(value);
+            bindOnPreferenceChangeListener(cacheSize);
+        }
     }
 
     @Override
@@ -109,6 +125,13 @@ public class StreamingSettingsFragment extends PreferenceFragmentCompat
                 preference.setSummary(Integer.toString(value));
             }
 
+        } else if (preference.getKey().equals(getString(R.string.pref_key_streaming_cache_size))) {
+            int value = 1;
+            if (!TextUtils.isEmpty((String)newValue))
+                value = Integer.parseInt((String)newValue);
+            pref.streamingCacheSize(value);
+            preference.setSummary(Integer.toString(value));
+
         } else if (preference.getKey().equals(getString(R.string.pref_key_streaming_enable))) {
             pref.enableStreaming((boolean)newValue);
         }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.proninyaroslav.libretorrent.core.filter.TorrentFilter;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentInfo;
+import org.proninyaroslav.libretorrent.core.model.data.TorrentInfoListChanges;
+import org.proninyaroslav.libretorrent.core.sorting.TorrentSorting;
+import org.proninyaroslav.libretorrent.core.sorting.TorrentSortingComparator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class IncrementalTorrentListTest
+{
+    private final TorrentSortingComparator sortByName = new TorrentSortingComparator(
+            new TorrentSorting(TorrentSorting.SortingColumns.name, TorrentSorting.Direction.ASC));
+    private final TorrentSortingComparator sortByProgress = new TorrentSortingComparator(
+            new TorrentSorting(TorrentSorting.SortingColumns.progress, TorrentSorting.Direction.ASC));
+    private final TorrentFilter all = (info) -> true;
+
+    private IncrementalTorrentList<TorrentInfo> list;
+
+    @Before
+    public void init()
+    {
+        list = new IncrementalTorrentList<>((info) -> info);
+    }
+
+    @Test
+    public void testReset() throws Exception
+    {
+        List<TorrentInfo> result = list.apply(
+                TorrentInfoListChanges.makeReset(Arrays.asList(info("2", "b", 0), info("1", "a", 0))),
+                all, sortByName);
+
+        assertEquals(Arrays.asList("1", "2"), ids(result));
+    }
+
+    @Test
+    public void testAddAndRemove() throws Exception
+    {
+        list.apply(TorrentInfoListChanges.makeReset(Arrays.asList(info("1", "a", 0), info("3", "c", 0))),
+                all, sortByName);
+
+        List<TorrentInfo> result = list.apply(new TorrentInfoListChanges(false,
+                        Collections.singletonList(info("2", "b", 0)),
+                        Collections.singletonList("3"),
+                        Collections.emptyList()),
+                all, sortByName);
+
+        assertEquals(Arrays.asList("1", "2"), ids(result));
+    }
+
+    @Test
+    public void testChangedFieldsOrder() throws Exception
+    {
+        list.apply(TorrentInfoListChanges.makeReset(Arrays.asList(info("1", "a", 10), info("2", "b", 20))),
+                all, sortByProgress);
+
+        TorrentInfo changed = info("1", "a", 30);
+        List<TorrentInfo> result = list.apply(new TorrentInfoListChanges(false,
+                        Collections.emptyList(),
+                        Collections.emptyList(),
+                        Collections.singletonList(changed(info("1", "a", 10), changed))),
+                all, sortByProgress);
+
+        assertEquals(Arrays.asList("2", "1"), ids(result));
+        assertEquals(30, result.get(1).progress);
+    }
+
+    @Test
+    public void testFilter() throws Exception
+    {
+        TorrentFilter inProgress = (info) -> info.progress < 100;
+        list.apply(TorrentInfoListChanges.makeReset(Arrays.asList(info("1", "a", 10), info("2", "b", 20))),
+                inProgress, sortByName);
+
+        TorrentInfo changed = info("2", "b", 100);
+        List<TorrentInfo> result = list.apply(new TorrentInfoListChanges(false,
+                        Collections.emptyList(),
+                        Collections.emptyList(),
+                        Collections.singletonList(changed(info("2", "b", 20), changed))),
+                inProgress, sortByName);
+
+        assertEquals(Collections.singletonList("1"), ids(result));
+
+        /* Filter has changed */
+        list.invalidate();
+        result = list.apply(new TorrentInfoListChanges(false,
+                        Collections.emptyList(),
+                        Collections.emptyList(),
+                        Collections.emptyList()),
+                all, sortByName);
+
+        assertEquals(Arrays.asList("1", "2"), ids(result));
+    }
+
+    @Test
+    public void testFieldsDiff()
+    {
+        TorrentInfo oldInfo = info("1", "a", 10);
+        TorrentInfo newInfo = info("1", "a", 20);
+        newInfo.downloadSpeed = 100;
+
+        Set<TorrentInfoListChanges.Field> fields = TorrentInfoListChanges.Field.diff(oldInfo, newInfo);
+
+        assertEquals(2, fields.size());
+        assertTrue(fields.contains(TorrentInfoListChanges.Field.PROGRESS));
+        assertTrue(fields.contains(TorrentInfoListChanges.Field.SPEED));
+        assertTrue(TorrentInfoListChanges.Field.diff(oldInfo, info("1", "a", 10)).isEmpty());
+    }
+
+    private static TorrentInfoListChanges.Changed changed(TorrentInfo oldInfo, TorrentInfo newInfo)
+    {
+        return new TorrentInfoListChanges.Changed(newInfo,
+                TorrentInfoListChanges.Field.diff(oldInfo, newInfo));
+    }
+
+    private static TorrentInfo info(String id, String name, int progress)
+    {
+        TorrentInfo info = new TorrentInfo(id, name, 0, null, new ArrayList<>());
+        info.progress = progress;
+
+        return info;
+    }
+
+    private static List<String> ids(List<TorrentInfo> infoList)
+    {
+        ArrayList<String> ids = new ArrayList<>(infoList.size());
+        for (TorrentInfo info : infoList)
+            ids.add(info.torrentId);
+
+        return ids;
+    }
+}
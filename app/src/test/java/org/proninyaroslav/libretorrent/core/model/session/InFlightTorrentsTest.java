@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class InFlightTorrentsTest
+{
+    private static final int THREADS = 16;
+    private static final int HASHES = 5000;
+
+    @Test
+    public void testFetching()
+    {
+        InFlightTorrents inFlight = new InFlightTorrents();
+
+        assertTrue(inFlight.startFetching("1"));
+        assertFalse(inFlight.startFetching("1"));
+        assertTrue(inFlight.isFetching("1"));
+        assertFalse(inFlight.hasAdding());
+        assertEquals(InFlightTorrents.State.FETCHING, inFlight.onAdded("1"));
+
+        assertTrue(inFlight.cancelFetching("1"));
+        assertFalse(inFlight.cancelFetching("1"));
+        assertNull(inFlight.getState("1"));
+    }
+
+    @Test
+    public void testAdding()
+    {
+        InFlightTorrents inFlight = new InFlightTorrents();
+
+        assertTrue(inFlight.startAdding("1"));
+        assertFalse(inFlight.startAdding("1"));
+        assertTrue(inFlight.isAdding("1"));
+        assertTrue(inFlight.hasAdding());
+        assertFalse(inFlight.cancelFetching("1"));
+
+        assertEquals(InFlightTorrents.State.ADDED, inFlight.onAdded("1"));
+        assertNull(inFlight.onAdded("1"));
+        assertFalse(inFlight.hasAdding());
+        assertNull(inFlight.getState("1"));
+    }
+
+    @Test
+    public void testFetchingToAdding()
+    {
+        InFlightTorrents inFlight = new InFlightTorrents();
+
+        inFlight.startFetching("1");
+        assertTrue(inFlight.startAdding("1"));
+        assertFalse(inFlight.isFetching("1"));
+        assertFalse(inFlight.startFetching("1"));
+
+        assertTrue(inFlight.cancelAdding("1"));
+        assertFalse(inFlight.hasAdding());
+    }
+
+    @Test
+    public void testClear()
+    {
+        InFlightTorrents inFlight = new InFlightTorrents();
+
+        inFlight.startFetching("1");
+        inFlight.startAdding("2");
+        inFlight.clear();
+
+        assertFalse(inFlight.hasAdding());
+        assertNull(inFlight.getState("1"));
+        assertNull(inFlight.getState("2"));
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception
+    {
+        InFlightTorrents inFlight = new InFlightTorrents();
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger added = new AtomicInteger();
+
+        /* Every hash is added by several threads at once, only one must win */
+        runConcurrently((thread) -> {
+            for (int i = 0; i < HASHES; i++) {
+                if (inFlight.startAdding(Integer.toString(i)))
+                    started.incrementAndGet();
+            }
+        });
+        assertEquals(HASHES, started.get());
+        assertTrue(inFlight.hasAdding());
+
+        /* The add_torrent alert and the add error may race */
+        runConcurrently((thread) -> {
+            for (int i = 0; i < HASHES; i++) {
+                String hash = Integer.toString(i);
+                if (thread % 2 == 0) {
+                    if (inFlight.onAdded(hash) == InFlightTorrents.State.ADDED)
+                        added.incrementAndGet();
+                } else if (inFlight.cancelAdding(hash)) {
+                    added.incrementAndGet();
+                }
+            }
+        });
+        assertEquals(HASHES, added.get());
+        assertFalse(inFlight.hasAdding());
+    }
+
+    @Test
+    public void testConcurrentAddsAndFetches() throws Exception
+    {
+        InFlightTorrents inFlight = new InFlightTorrents();
+
+        runConcurrently((thread) -> {
+            for (int i = 0; i < HASHES; i++) {
+                String hash = Integer.toString(i);
+                switch ((i + thread) % 4) {
+                    case 0:
+                        inFlight.startFetching(hash);
+                        break;
+                    case 1:
+                        inFlight.cancelFetching(hash);
+                        break;
+                    case 2:
+                        inFlight.startAdding(hash);
+                        break;
+                    case 3:
+                        inFlight.onAdded(hash);
+                        break;
+                }
+            }
+        });
+
+        /* Counter must match the actual number of adding torrents */
+        for (int i = 0; i < HASHES; i++) {
+            String hash = Integer.toString(i);
+            if (inFlight.isAdding(hash)) {
+                assertTrue(inFlight.hasAdding());
+                assertTrue(inFlight.cancelAdding(hash));
+            }
+        }
+        assertFalse(inFlight.hasAdding());
+    }
+
+    private interface Action
+    {
+        void run(int thread);
+    }
+
+    private static void runConcurrently(Action action) throws Exception
+    {
+        ExecutorService exec = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                futures.add(exec.submit(() -> {
+                    startSignal.await();
+                    action.run(thread);
+
+                    return null;
+                }));
+            }
+            startSignal.countDown();
+            for (Future<?> f : futures)
+                f.get(30, TimeUnit.SECONDS);
+
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+}
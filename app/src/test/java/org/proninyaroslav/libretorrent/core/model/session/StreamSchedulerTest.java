@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.session;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class StreamSchedulerTest
+{
+    private static final int PIECE_LENGTH = 1024 * 1024;
+    private static final int NUM_PIECES = 1000;
+
+    private static class FakePieces implements StreamScheduler.Pieces
+    {
+        final HashSet<Integer> have = new HashSet<>();
+        final HashMap<Integer, Integer> deadlines = new HashMap<>();
+        int setCalls;
+
+        @Override
+        public boolean havePiece(int piece)
+        {
+            return have.contains(piece);
+        }
+
+        @Override
+        public void setDeadline(int piece, int deadline)
+        {
+            ++setCalls;
+            deadlines.put(piece, deadline);
+        }
+
+        @Override
+        public void resetDeadline(int piece)
+        {
+            deadlines.remove(piece);
+        }
+    }
+
+    @Test
+    public void testDefaultWindow()
+    {
+        FakePieces pieces = new FakePieces();
+        StreamScheduler scheduler = new StreamScheduler(0, NUM_PIECES - 1, PIECE_LENGTH, pieces);
+        pieces.have.add(1);
+
+        scheduler.onRead(0, 1, 0);
+
+        assertEquals(StreamScheduler.DEFAULT_WINDOW, scheduler.getWindow());
+        assertEquals(StreamScheduler.DEFAULT_WINDOW - 1, pieces.deadlines.size());
+        assertFalse(pieces.deadlines.containsKey(1));
+        /* Deadlines are staggered */
+        assertTrue(pieces.deadlines.get(0) < pieces.deadlines.get(2));
+        assertTrue(pieces.deadlines.get(2) < pieces.deadlines.get(3));
+    }
+
+    @Test
+    public void testRepeatedReads()
+    {
+        FakePieces pieces = new FakePieces();
+        StreamScheduler scheduler = new StreamScheduler(0, NUM_PIECES - 1, PIECE_LENGTH, pieces);
+
+        scheduler.onRead(0, 1, 0);
+        int calls = pieces.setCalls;
+        /* Small reads inside the same piece don't touch the pieces */
+        for (int i = 0; i < 100; i++)
+            scheduler.onRead(0, 1, i);
+
+        assertEquals(calls, pieces.setCalls);
+    }
+
+    @Test
+    public void testWindowFollowsRate()
+    {
+        FakePieces highRate = new FakePieces();
+        StreamScheduler video = new StreamScheduler(0, NUM_PIECES - 1, PIECE_LENGTH, highRate);
+        /* 4 MiB/s */
+        for (int i = 0; i < 20; i++)
+            video.onRead(i, 1, i * 250L);
+
+        FakePieces lowRate = new FakePieces();
+        StreamScheduler audio = new StreamScheduler(0, NUM_PIECES - 1, PIECE_LENGTH, lowRate);
+        /* 32 KiB/s */
+        for (int i = 0; i < 20; i++)
+            audio.onRead(i, 1, i * 32000L);
+
+        /* 30 s of media is 120 pieces, more than the max window */
+        assertEquals(StreamScheduler.MAX_WINDOW, video.getWindow());
+        assertEquals(StreamScheduler.MIN_WINDOW, audio.getWindow());
+        assertEquals(4.0 * 1024 * 1024, video.getReadRate(), 1);
+
+        /* Pieces are expected to be read every 250 ms */
+        int deadline0 = highRate.deadlines.get(20);
+        int deadline1 = highRate.deadlines.get(21);
+        assertEquals(250, deadline1 - deadline0);
+    }
+
+    @Test
+    public void testSeek()
+    {
+        FakePieces pieces = new FakePieces();
+        StreamScheduler scheduler = new StreamScheduler(0, NUM_PIECES - 1, PIECE_LENGTH, pieces);
+
+        scheduler.onRead(100, 1, 0);
+        assertTrue(pieces.deadlines.containsKey(100));
+
+        scheduler.onRead(10, 1, 1000);
+        /* Pieces outside of the new window are returned to the normal priority */
+        assertFalse(pieces.deadlines.containsKey(100));
+        assertTrue(pieces.deadlines.containsKey(10));
+        assertEquals(StreamScheduler.DEFAULT_WINDOW, pieces.deadlines.size());
+        assertEquals(-1, scheduler.getReadRate(), 0);
+    }
+
+    @Test
+    public void testSkipInsideWindow()
+    {
+        FakePieces pieces = new FakePieces();
+        StreamScheduler scheduler = new StreamScheduler(0, NUM_PIECES - 1, PIECE_LENGTH, pieces);
+
+        scheduler.onRead(100, 1, 0);
+        pieces.have.add(100);
+
+        /* The skipped pieces that are not downloaded yet lose the deadline */
+        scheduler.onRead(102, 1, 1000);
+        assertFalse(pieces.deadlines.containsKey(101));
+        assertTrue(pieces.deadlines.containsKey(102));
+        /* The downloaded piece is left as is */
+        assertTrue(pieces.deadlines.containsKey(100));
+    }
+
+    @Test
+    public void testLastPiece()
+    {
+        FakePieces pieces = new FakePieces();
+        StreamScheduler scheduler = new StreamScheduler(0, 2, PIECE_LENGTH, pieces);
+
+        scheduler.onRead(1, 1, 0);
+        assertEquals(2, pieces.deadlines.size());
+        assertFalse(pieces.deadlines.containsKey(3));
+    }
+
+    @Test
+    public void testRelease()
+    {
+        FakePieces pieces = new FakePieces();
+        StreamScheduler scheduler = new StreamScheduler(0, NUM_PIECES - 1, PIECE_LENGTH, pieces);
+
+        scheduler.onRead(100, 1, 0);
+        assertEquals(StreamScheduler.DEFAULT_WINDOW, pieces.deadlines.size());
+
+        /* The closed reader no longer holds any pieces */
+        scheduler.release();
+        assertTrue(pieces.deadlines.isEmpty());
+
+        /* The next read is scheduled from scratch */
+        scheduler.onRead(100, 1, 1000);
+        assertEquals(StreamScheduler.DEFAULT_WINDOW, pieces.deadlines.size());
+        assertEquals(-1, scheduler.getReadRate(), 0);
+    }
+}
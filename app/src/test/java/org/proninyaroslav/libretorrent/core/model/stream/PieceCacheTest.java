@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2022 Yaroslav Pronin <proninyaroslav@mail.ru>
+ *
+ * This file is part of LibreTorrent.
+ *
+ * LibreTorrent is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibreTorrent is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibreTorrent.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.proninyaroslav.libretorrent.core.model.stream;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class PieceCacheTest
+{
+    private static final String TORRENT_ID = "0000000000000000000000000000000000000000";
+    private static final int PIECE_LENGTH = 1024;
+
+    @Test
+    public void testReadWrite()
+    {
+        PieceCache cache = new PieceCache(PIECE_LENGTH * 4);
+        byte[] dst = new byte[PIECE_LENGTH];
+
+        assertFalse(cache.read(TORRENT_ID, 0, 0, dst, 0, 1));
+        assertTrue(cache.put(TORRENT_ID, 0, makePiece(0, PIECE_LENGTH)));
+        assertTrue(cache.contains(TORRENT_ID, 0));
+        assertFalse(cache.contains("1111111111111111111111111111111111111111", 0));
+
+        assertTrue(cache.read(TORRENT_ID, 0, 100, dst, 10, 500));
+        for (int i = 0; i < 500; i++)
+            assertEquals(expectedByte(0, 100 + i), dst[10 + i]);
+
+        /* Out of the piece bounds */
+        assertFalse(cache.read(TORRENT_ID, 0, PIECE_LENGTH - 1, dst, 0, 2));
+
+        PieceCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.hits);
+        assertEquals(2, stats.misses);
+        assertEquals(1, stats.entries);
+    }
+
+    @Test
+    public void testLruEviction()
+    {
+        PieceCache cache = new PieceCache(PIECE_LENGTH * 3);
+
+        for (int i = 0; i < 3; i++)
+            cache.put(TORRENT_ID, i, makePiece(i, PIECE_LENGTH));
+        /* Piece 0 becomes the most recently used */
+        assertTrue(cache.read(TORRENT_ID, 0, 0, new byte[1], 0, 1));
+        cache.put(TORRENT_ID, 3, makePiece(3, PIECE_LENGTH));
+
+        assertTrue(cache.contains(TORRENT_ID, 0));
+        assertFalse(cache.contains(TORRENT_ID, 1));
+        assertTrue(cache.contains(TORRENT_ID, 2));
+        assertTrue(cache.contains(TORRENT_ID, 3));
+
+        PieceCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.evictions);
+        assertEquals(PIECE_LENGTH * 3, stats.size);
+    }
+
+    @Test
+    public void testLastPieceReusesBuffer()
+    {
+        PieceCache cache = new PieceCache(PIECE_LENGTH * 2);
+
+        cache.put(TORRENT_ID, 0, makePiece(0, PIECE_LENGTH));
+        cache.put(TORRENT_ID, 1, makePiece(1, PIECE_LENGTH));
+        /* The smaller piece takes the buffer of the evicted one */
+        cache.put(TORRENT_ID, 2, makePiece(2, PIECE_LENGTH / 2 + 1));
+
+        byte[] dst = new byte[PIECE_LENGTH / 2 + 1];
+        assertTrue(cache.read(TORRENT_ID, 2, 0, dst, 0, dst.length));
+        for (int i = 0; i < dst.length; i++)
+            assertEquals(expectedByte(2, i), dst[i]);
+        assertFalse(cache.read(TORRENT_ID, 2, 0, new byte[PIECE_LENGTH], 0, PIECE_LENGTH));
+        assertEquals(PIECE_LENGTH * 2, cache.getStats().size);
+    }
+
+    @Test
+    public void testMemoryBudget()
+    {
+        PieceCache cache = new PieceCache(PIECE_LENGTH);
+
+        assertFalse(cache.put(TORRENT_ID, 0, makePiece(0, PIECE_LENGTH * 2)));
+        assertTrue(cache.put(TORRENT_ID, 1, makePiece(1, PIECE_LENGTH)));
+
+        cache.setMaxSize(0);
+        assertFalse(cache.contains(TORRENT_ID, 1));
+        assertEquals(0, cache.getStats().size);
+    }
+
+    @Test
+    public void testRemoveTorrent()
+    {
+        PieceCache cache = new PieceCache(PIECE_LENGTH * 4);
+        String otherId = "1111111111111111111111111111111111111111";
+
+        cache.put(TORRENT_ID, 0, makePiece(0, PIECE_LENGTH));
+        cache.put(otherId, 0, makePiece(0, PIECE_LENGTH));
+        cache.removeTorrent(TORRENT_ID);
+
+        assertFalse(cache.contains(TORRENT_ID, 0));
+        assertTrue(cache.contains(otherId, 0));
+        /* The buffer of the removed torrent isn't pooled */
+        assertEquals(PIECE_LENGTH, cache.getStats().size);
+    }
+
+    @Test
+    public void testStreamClosedAndClear()
+    {
+        PieceCache cache = new PieceCache(PIECE_LENGTH * 2);
+
+        cache.onStreamOpened();
+        cache.put(TORRENT_ID, 0, makePiece(0, PIECE_LENGTH));
+        cache.put(TORRENT_ID, 1, makePiece(1, PIECE_LENGTH));
+        cache.onStreamClosed();
+        /* Pieces are kept for the next streams */
+        assertTrue(cache.contains(TORRENT_ID, 0));
+        assertEquals(PIECE_LENGTH * 2, cache.getStats().size);
+        /* Unbalanced close is ignored */
+        cache.onStreamClosed();
+
+        cache.clear();
+        assertFalse(cache.contains(TORRENT_ID, 1));
+        assertEquals(0, cache.getStats().size);
+        assertEquals(0, cache.getStats().entries);
+    }
+
+    private static byte expectedByte(int piece, int offset)
+    {
+        return (byte)(piece * 31 + offset);
+    }
+
+    private static ByteBuffer makePiece(int piece, int size)
+    {
+        ByteBuffer buf = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++)
+            buf.put(expectedByte(piece, i));
+        buf.flip();
+
+        return buf;
+    }
+}